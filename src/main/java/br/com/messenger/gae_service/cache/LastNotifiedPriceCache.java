@@ -0,0 +1,48 @@
+package br.com.messenger.gae_service.cache;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+@Component
+public class LastNotifiedPriceCache {
+
+    private static final Logger log = Logger.getLogger(LastNotifiedPriceCache.class.getName());
+
+    private static final String NAMESPACE = "lastNotifiedPrice";
+
+    private final MemcacheService memcacheService;
+    private final int ttlSeconds;
+
+    public LastNotifiedPriceCache(@Value("${messenger.price-update.notified-price-ttl-seconds:86400}") int ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+        this.memcacheService = MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+    }
+
+    public Map<String, Double> getAll(Collection<String> keys) {
+
+        Map<String, Double> lastNotifiedPrices = new HashMap<>();
+
+        try {
+            for (Map.Entry<String, Object> entry : memcacheService.getAll(keys).entrySet())
+                lastNotifiedPrices.put(entry.getKey(), (Double) entry.getValue());
+        } catch (RuntimeException e) {
+            log.warning("Falha ao ler últimos preços notificados do memcache: " + e.getMessage());
+        }
+
+        return lastNotifiedPrices;
+    }
+
+    public void putAll(Map<String, Double> lastNotifiedPrices) {
+        try {
+            memcacheService.putAll(lastNotifiedPrices, Expiration.byDeltaSeconds(ttlSeconds));
+        } catch (RuntimeException e) {
+            log.warning("Falha ao gravar últimos preços notificados no memcache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package br.com.messenger.gae_service.cache;
+
+import br.com.messenger.gae_service.model.ProductOfInterest;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+@Component
+public class PriceThresholdIndex {
+
+    private static final Logger log = Logger.getLogger(PriceThresholdIndex.class.getName());
+
+    private static final String LAST_WRITE_NAMESPACE = "priceIndexWrites";
+
+    private final long consistencyMarginMillis;
+    private final MemcacheService lastWriteService;
+    private final Object lock = new Object();
+
+    private volatile Map<Long, Watchers> watchersByProductId = new ConcurrentHashMap<>();
+    private volatile long loadedAt;
+    private volatile boolean ready = false;
+    private List<Consumer<Map<Long, Watchers>>> pendingChanges;
+
+    public PriceThresholdIndex(@Value("${messenger.price-index.consistency-margin-millis:5000}") long consistencyMarginMillis) {
+        this.consistencyMarginMillis = consistencyMarginMillis;
+        this.lastWriteService = MemcacheServiceFactory.getMemcacheService(LAST_WRITE_NAMESPACE);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public List<ProductOfInterest> getWatchers(Long salesProviderProductId, double price) {
+
+        Long lastWrite = getLastWrite(salesProviderProductId);
+        Watchers watchers = watchersByProductId.get(salesProviderProductId);
+        long watchersLoadedAt = (watchers != null) ? watchers.loadedAt : loadedAt;
+
+        if (lastWrite == null || lastWrite + consistencyMarginMillis >= watchersLoadedAt)
+            return null;
+
+        return (watchers != null) ? watchers.getWatchers(price) : new ArrayList<>();
+    }
+
+    public List<ProductOfInterest> reload(Long salesProviderProductId, double price, Supplier<List<ProductOfInterest>> productsOfInterest) {
+
+        long reloadedAt = System.currentTimeMillis();
+        Watchers watchers = Watchers.of(productsOfInterest.get(), reloadedAt);
+
+        synchronized (lock) {
+            watchersByProductId.put(salesProviderProductId, watchers);
+        }
+
+        return watchers.getWatchers(price);
+    }
+
+    public void load(Consumer<Consumer<ProductOfInterest>> productsOfInterest) {
+
+        long startedAt = System.currentTimeMillis();
+
+        synchronized (lock) {
+            pendingChanges = new ArrayList<>();
+        }
+
+        Map<Long, List<ProductOfInterest>> productsOfInterestByProductId = new HashMap<>();
+        int count = 0;
+
+        try {
+            productsOfInterest.accept(productOfInterest -> productsOfInterestByProductId.computeIfAbsent(productOfInterest.getSalesProviderProductId(), k -> new ArrayList<>()).add(productOfInterest));
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                pendingChanges = null;
+            }
+
+            throw e;
+        }
+
+        Map<Long, Watchers> loadedWatchers = new ConcurrentHashMap<>();
+
+        for (Map.Entry<Long, List<ProductOfInterest>> entry : productsOfInterestByProductId.entrySet()) {
+            loadedWatchers.put(entry.getKey(), Watchers.of(entry.getValue(), startedAt));
+            count += entry.getValue().size();
+        }
+
+        synchronized (lock) {
+            for (Consumer<Map<Long, Watchers>> pendingChange : pendingChanges)
+                pendingChange.accept(loadedWatchers);
+
+            pendingChanges = null;
+            watchersByProductId = loadedWatchers;
+            loadedAt = startedAt;
+            ready = true;
+        }
+
+        log.info("Índice de preços carregado com " + count + " produtos de interesse");
+    }
+
+    public void put(ProductOfInterest productOfInterest) {
+        apply(watchers -> watchers.compute(productOfInterest.getSalesProviderProductId(), (productId, productWatchers) -> {
+            List<ProductOfInterest> productsOfInterest = withoutCpf(productWatchers, productOfInterest.getCpf());
+            productsOfInterest.add(productOfInterest);
+            return Watchers.of(productsOfInterest, (productWatchers != null) ? productWatchers.loadedAt : loadedAt);
+        }));
+    }
+
+    public void remove(String cpf, Long salesProviderProductId) {
+        apply(watchers -> watchers.computeIfPresent(salesProviderProductId, (productId, productWatchers) -> Watchers.of(withoutCpf(productWatchers, cpf), productWatchers.loadedAt)));
+    }
+
+    public void markWritten(Collection<Long> salesProviderProductIds) {
+
+        Map<String, Long> lastWrites = new HashMap<>();
+        long now = System.currentTimeMillis();
+
+        for (Long salesProviderProductId : salesProviderProductIds)
+            lastWrites.put(String.valueOf(salesProviderProductId), now);
+
+        try {
+            lastWriteService.putAll(lastWrites);
+        } catch (RuntimeException e) {
+            log.warning("Falha ao gravar escrita do índice de preços no memcache: " + e.getMessage());
+        }
+    }
+
+    private void apply(Consumer<Map<Long, Watchers>> change) {
+        synchronized (lock) {
+            change.accept(watchersByProductId);
+
+            if (pendingChanges != null)
+                pendingChanges.add(change);
+        }
+    }
+
+    private Long getLastWrite(Long salesProviderProductId) {
+
+        String key = String.valueOf(salesProviderProductId);
+
+        try {
+            Object lastWrite = lastWriteService.get(key);
+
+            if (lastWrite != null)
+                return ((Number) lastWrite).longValue();
+
+            long now = System.currentTimeMillis();
+
+            if (lastWriteService.put(key, now, null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT))
+                return now;
+
+            lastWrite = lastWriteService.get(key);
+            return (lastWrite != null) ? ((Number) lastWrite).longValue() : null;
+        } catch (RuntimeException e) {
+            log.warning("Falha ao ler escrita do índice de preços do produto " + salesProviderProductId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private List<ProductOfInterest> withoutCpf(Watchers watchers, String cpf) {
+
+        List<ProductOfInterest> productsOfInterest = new ArrayList<>();
+
+        if (watchers != null) {
+            for (ProductOfInterest productOfInterest : watchers.productsOfInterest) {
+                if (!productOfInterest.getCpf().equals(cpf))
+                    productsOfInterest.add(productOfInterest);
+            }
+        }
+
+        return productsOfInterest;
+    }
+
+    private static class Watchers {
+
+        private final double[] thresholds;
+        private final ProductOfInterest[] productsOfInterest;
+        private final long loadedAt;
+
+        private Watchers(double[] thresholds, ProductOfInterest[] productsOfInterest, long loadedAt) {
+            this.thresholds = thresholds;
+            this.productsOfInterest = productsOfInterest;
+            this.loadedAt = loadedAt;
+        }
+
+        private static Watchers of(List<ProductOfInterest> productsOfInterest, long loadedAt) {
+
+            ProductOfInterest[] sortedProductsOfInterest = productsOfInterest.toArray(new ProductOfInterest[0]);
+            Arrays.sort(sortedProductsOfInterest, Comparator.comparingDouble(ProductOfInterest::getMinPriceAlert));
+
+            double[] thresholds = new double[sortedProductsOfInterest.length];
+
+            for (int i = 0; i < sortedProductsOfInterest.length; i++)
+                thresholds[i] = sortedProductsOfInterest[i].getMinPriceAlert();
+
+            return new Watchers(thresholds, sortedProductsOfInterest, loadedAt);
+        }
+
+        private List<ProductOfInterest> getWatchers(double price) {
+            return new ArrayList<>(Arrays.asList(productsOfInterest).subList(firstIndexAtLeast(price), productsOfInterest.length));
+        }
+
+        private int firstIndexAtLeast(double price) {
+
+            int low = 0;
+            int high = thresholds.length;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (thresholds[middle] < price)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+
+            return low;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package br.com.messenger.gae_service.cache;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.memcache.stdimpl.GCacheFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.cache.Cache;
+import javax.cache.CacheException;
+import javax.cache.CacheManager;
+import java.io.Serializable;
+import java.util.*;
+import java.util.logging.Logger;
+
+@Component
+public class UserCache {
+
+    private static final Logger log = Logger.getLogger(UserCache.class.getName());
+
+    private static final String VERSION_NAMESPACE = "userCacheVersions";
+
+    private static final String EMAIL_PREFIX = "user:email:";
+    private static final String CPF_PREFIX = "user:cpf:";
+
+    private static final String PROPERTY_EMAIL = "email";
+    private static final String PROPERTY_CPF = "cpf";
+
+    private final LocalCache<String, VersionedEntity> localCache;
+    private final MemcacheService versionService;
+    private Cache memcache;
+
+    public UserCache(@Value("${messenger.cache.user.local-size:1000}") int localSize,
+                     @Value("${messenger.cache.user.local-ttl-seconds:30}") int localTtlSeconds,
+                     @Value("${messenger.cache.user.memcache-ttl-seconds:600}") int memcacheTtlSeconds) {
+        this.localCache = new LocalCache<>(localSize, localTtlSeconds * 1000L);
+        this.versionService = MemcacheServiceFactory.getMemcacheService(VERSION_NAMESPACE);
+
+        try {
+            Map<Object, Object> properties = new HashMap<>();
+            properties.put(GCacheFactory.EXPIRATION_DELTA, memcacheTtlSeconds);
+            this.memcache = CacheManager.getInstance().getCacheFactory().createCache(properties);
+        } catch (CacheException e) {
+            log.warning("Memcache indisponível para o cache de usuários: " + e.getMessage());
+        }
+    }
+
+    public Long getVersionByEmail(String email) {
+        return getOrCreateVersions(Collections.singletonList(EMAIL_PREFIX + email)).get(EMAIL_PREFIX + email);
+    }
+
+    public Long getVersionByCpf(String cpf) {
+        return getOrCreateVersions(Collections.singletonList(CPF_PREFIX + cpf)).get(CPF_PREFIX + cpf);
+    }
+
+    public Map<String, Long> getVersionsByCpfs(Collection<String> cpfs) {
+
+        List<String> keys = new ArrayList<>();
+
+        for (String cpf : cpfs)
+            keys.add(CPF_PREFIX + cpf);
+
+        Map<String, Long> versionsByCpf = new HashMap<>();
+
+        for (Map.Entry<String, Long> version : getOrCreateVersions(keys).entrySet())
+            versionsByCpf.put(version.getKey().substring(CPF_PREFIX.length()), version.getValue());
+
+        return versionsByCpf;
+    }
+
+    public Entity getByEmail(String email, Long version) {
+        return get(EMAIL_PREFIX + email, version);
+    }
+
+    public Entity getByCpf(String cpf, Long version) {
+        return get(CPF_PREFIX + cpf, version);
+    }
+
+    public Map<String, Entity> getByCpfs(Collection<String> cpfs, Map<String, Long> versionsByCpf) {
+
+        Map<String, Entity> entitiesByCpf = new HashMap<>();
+        List<String> missingKeys = new ArrayList<>();
+
+        for (String cpf : cpfs) {
+            Entity userEntity = getLocal(CPF_PREFIX + cpf, versionsByCpf.get(cpf));
+
+            if (userEntity != null)
+                entitiesByCpf.put(cpf, userEntity.clone());
+            else if (versionsByCpf.containsKey(cpf))
+                missingKeys.add(CPF_PREFIX + cpf);
+        }
+
+        if (memcache != null && !missingKeys.isEmpty()) {
+            try {
+                Map<?, ?> memcacheEntities = memcache.getAll(missingKeys);
+
+                for (Map.Entry<?, ?> memcacheEntry : memcacheEntities.entrySet()) {
+                    String key = (String) memcacheEntry.getKey();
+                    String cpf = key.substring(CPF_PREFIX.length());
+                    VersionedEntity versionedEntity = (VersionedEntity) memcacheEntry.getValue();
+
+                    if (isCurrent(versionedEntity, versionsByCpf.get(cpf))) {
+                        localCache.put(key, versionedEntity);
+                        entitiesByCpf.put(cpf, versionedEntity.entity.clone());
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.warning("Falha ao ler usuários do memcache: " + e.getMessage());
+            }
+        }
+
+        return entitiesByCpf;
+    }
+
+    public void putByEmail(String email, Entity userEntity, Long version) {
+        put(EMAIL_PREFIX + email, userEntity, version);
+    }
+
+    public void putByCpf(String cpf, Entity userEntity, Long version) {
+        put(CPF_PREFIX + cpf, userEntity, version);
+    }
+
+    public void invalidate(Entity userEntity) {
+        invalidate((String) userEntity.getProperty(PROPERTY_EMAIL), (String) userEntity.getProperty(PROPERTY_CPF));
+    }
+
+    public void invalidate(String email, String cpf) {
+
+        List<String> keys = new ArrayList<>();
+
+        if (email != null)
+            keys.add(EMAIL_PREFIX + email);
+
+        if (cpf != null)
+            keys.add(CPF_PREFIX + cpf);
+
+        try {
+            versionService.incrementAll(keys, 1L, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.warning("Falha ao atualizar versão do usuário no memcache: " + e.getMessage());
+        }
+
+        for (String key : keys) {
+            localCache.remove(key);
+
+            if (memcache != null) {
+                try {
+                    memcache.remove(key);
+                } catch (RuntimeException e) {
+                    log.warning("Falha ao remover usuário do memcache: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Entity get(String key, Long version) {
+
+        if (version == null)
+            return null;
+
+        Entity userEntity = getLocal(key, version);
+
+        if (userEntity == null && memcache != null) {
+            try {
+                VersionedEntity versionedEntity = (VersionedEntity) memcache.get(key);
+
+                if (isCurrent(versionedEntity, version)) {
+                    localCache.put(key, versionedEntity);
+                    userEntity = versionedEntity.entity;
+                }
+            } catch (RuntimeException e) {
+                log.warning("Falha ao ler usuário do memcache: " + e.getMessage());
+            }
+        }
+
+        return (userEntity != null) ? userEntity.clone() : null;
+    }
+
+    private void put(String key, Entity userEntity, Long version) {
+
+        if (version == null)
+            return;
+
+        VersionedEntity versionedEntity = new VersionedEntity(userEntity.clone(), version);
+        localCache.put(key, versionedEntity);
+
+        if (memcache != null) {
+            try {
+                memcache.put(key, versionedEntity);
+            } catch (RuntimeException e) {
+                log.warning("Falha ao gravar usuário no memcache: " + e.getMessage());
+            }
+        }
+    }
+
+    private Entity getLocal(String key, Long version) {
+
+        VersionedEntity versionedEntity = localCache.get(key);
+
+        if (versionedEntity == null)
+            return null;
+
+        if (!isCurrent(versionedEntity, version)) {
+            localCache.remove(key);
+            return null;
+        }
+
+        return versionedEntity.entity;
+    }
+
+    private boolean isCurrent(VersionedEntity versionedEntity, Long version) {
+        return versionedEntity != null && version != null && versionedEntity.version == version;
+    }
+
+    private Map<String, Long> getOrCreateVersions(List<String> keys) {
+
+        Map<String, Long> versions = new HashMap<>();
+
+        try {
+            for (Map.Entry<String, Object> version : versionService.getAll(keys).entrySet())
+                versions.put(version.getKey(), ((Number) version.getValue()).longValue());
+        } catch (RuntimeException e) {
+            log.warning("Falha ao ler versões dos usuários do memcache: " + e.getMessage());
+            return versions;
+        }
+
+        Map<String, Long> newVersions = new HashMap<>();
+
+        for (String key : keys) {
+            if (!versions.containsKey(key))
+                newVersions.put(key, System.currentTimeMillis());
+        }
+
+        if (newVersions.isEmpty())
+            return versions;
+
+        try {
+            for (String key : versionService.putAll(newVersions, null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT))
+                versions.put(key, newVersions.get(key));
+        } catch (RuntimeException e) {
+            log.warning("Falha ao gravar versões dos usuários no memcache: " + e.getMessage());
+        }
+
+        return versions;
+    }
+
+    private static class VersionedEntity implements Serializable {
+
+        private final Entity entity;
+        private final long version;
+
+        private VersionedEntity(Entity entity, long version) {
+            this.entity = entity;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package br.com.messenger.gae_service.config;
+
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.logging.Logger;
+
+public class AdaptivePasswordEncoder implements PasswordEncoder {
+
+    private static final Logger log = Logger.getLogger(AdaptivePasswordEncoder.class.getName());
+
+    private static final String BCRYPT_ID = "{bcrypt}";
+    private static final int BENCHMARK_ROUNDS = 3;
+
+    private final int strength;
+    private final BCryptPasswordEncoder encoder;
+
+    public AdaptivePasswordEncoder(int strength) {
+        this.strength = strength;
+        this.encoder = new BCryptPasswordEncoder(strength);
+    }
+
+    public int getStrength() {
+        return strength;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return BCRYPT_ID + encoder.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+
+        if (encodedPassword == null)
+            return false;
+
+        return encoder.matches(rawPassword, stripId(encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+
+        if (encodedPassword == null || !encodedPassword.startsWith(BCRYPT_ID))
+            return true;
+
+        return getStoredStrength(stripId(encodedPassword)) < strength;
+    }
+
+    private String stripId(String encodedPassword) {
+        return encodedPassword.startsWith(BCRYPT_ID) ? encodedPassword.substring(BCRYPT_ID.length()) : encodedPassword;
+    }
+
+    private int getStoredStrength(String bcryptHash) {
+        try {
+            return Integer.parseInt(bcryptHash.substring(4, 6));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    public static int tuneStrength(int minStrength, int maxStrength, long budgetMillis) {
+
+        long elapsedNanos = Long.MAX_VALUE;
+
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long start = System.nanoTime();
+            BCrypt.hashpw("benchmark", BCrypt.gensalt(minStrength));
+            elapsedNanos = Math.min(elapsedNanos, System.nanoTime() - start);
+        }
+
+        double elapsedMillis = Math.max(elapsedNanos / 1000000.0, 0.001);
+        int strength = minStrength;
+
+        while (strength < maxStrength && elapsedMillis * 2 <= budgetMillis) {
+            elapsedMillis *= 2;
+            strength++;
+        }
+
+        log.info("Custo do BCrypt ajustado para " + strength + " (~" + Math.round(elapsedMillis) + " ms por hash, orçamento de " + budgetMillis + " ms)");
+        return strength;
+    }
+}
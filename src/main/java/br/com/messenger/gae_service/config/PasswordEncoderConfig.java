@@ -1,13 +1,30 @@
 package br.com.messenger.gae_service.config;
 
+import br.com.messenger.gae_service.repository.SettingsRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.logging.Logger;
 
 @Configuration
 public class PasswordEncoderConfig {
+
+    private static final Logger log = Logger.getLogger(PasswordEncoderConfig.class.getName());
+
+    private static final String PASSWORD_STRENGTH_SETTING = "passwordStrength";
+
     @Bean
-    public BCryptPasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(SettingsRepository settingsRepository,
+                                           @Value("${messenger.password.min-strength:10}") int minStrength,
+                                           @Value("${messenger.password.max-strength:14}") int maxStrength,
+                                           @Value("${messenger.password.hash-budget-millis:100}") long budgetMillis) {
+
+        long sharedStrength = settingsRepository.getOrCreate(PASSWORD_STRENGTH_SETTING, () -> AdaptivePasswordEncoder.tuneStrength(minStrength, maxStrength, budgetMillis));
+        int strength = (int) Math.max(minStrength, Math.min(maxStrength, sharedStrength));
+
+        log.info("Custo do BCrypt compartilhado entre as instâncias: " + strength);
+        return new AdaptivePasswordEncoder(strength);
     }
 }
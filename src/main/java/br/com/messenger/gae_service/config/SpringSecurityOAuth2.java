@@ -1,7 +1,9 @@
 package br.com.messenger.gae_service.config;
 
+import br.com.messenger.gae_service.repository.CachedTokenStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -11,12 +13,20 @@ import org.springframework.security.oauth2.config.annotation.configurers.ClientD
 import org.springframework.security.oauth2.config.annotation.web.configuration.AuthorizationServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableAuthorizationServer;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerEndpointsConfigurer;
+import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.TokenEnhancerChain;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.store.JwtTokenStore;
+
+import java.util.Arrays;
 
 @Profile("auth_oauth2")
 @Configuration
 @EnableAuthorizationServer
 public class SpringSecurityOAuth2 extends AuthorizationServerConfigurerAdapter {
 
+    private static final String TOKEN_FORMAT_JWT = "jwt";
+
     @Autowired
     @Qualifier("userDetailsService")
     private UserDetailsService userDetailsService;
@@ -27,10 +37,34 @@ public class SpringSecurityOAuth2 extends AuthorizationServerConfigurerAdapter {
     @Autowired
     private AuthenticationManager authenticationManager;
 
+    @Autowired
+    private CachedTokenStore cachedTokenStore;
+
+    @Value("${messenger.oauth2.access-token-validity-seconds:3600}")
+    private int accessTokenValiditySeconds;
+
+    @Value("${messenger.oauth2.token-format:opaque}")
+    private String tokenFormat;
+
+    @Value("${messenger.oauth2.jwt.signing-key:}")
+    private String jwtSigningKey;
+
     @Override
     public void configure(AuthorizationServerEndpointsConfigurer configurer) throws Exception {
         configurer.authenticationManager(authenticationManager);
         configurer.userDetailsService(userDetailsService);
+
+        if (TOKEN_FORMAT_JWT.equals(tokenFormat)) {
+            JwtAccessTokenConverter accessTokenConverter = createJwtAccessTokenConverter();
+            TokenEnhancerChain tokenEnhancerChain = new TokenEnhancerChain();
+            tokenEnhancerChain.setTokenEnhancers(Arrays.asList(new UserClaimsTokenEnhancer(), accessTokenConverter));
+
+            configurer.tokenStore(new JwtTokenStore(accessTokenConverter));
+            configurer.accessTokenConverter(accessTokenConverter);
+            configurer.tokenEnhancer(tokenEnhancerChain);
+        } else {
+            configurer.tokenStore(cachedTokenStore);
+        }
     }
 
     @Override
@@ -38,9 +72,24 @@ public class SpringSecurityOAuth2 extends AuthorizationServerConfigurerAdapter {
         clients.inMemory()
                 .withClient("androidapp")
                 .secret(passwordEncoder.encode("androidapp"))
-                .accessTokenValiditySeconds(3600)
+                .accessTokenValiditySeconds(accessTokenValiditySeconds)
                 .scopes("read", "write")
                 .authorizedGrantTypes("password")
                 .resourceIds("oauth2-resource");
     }
+
+    private JwtAccessTokenConverter createJwtAccessTokenConverter() throws Exception {
+
+        if (jwtSigningKey.isEmpty())
+            throw new IllegalStateException("Propriedade messenger.oauth2.jwt.signing-key deve ser informada para tokens JWT");
+
+        DefaultAccessTokenConverter defaultAccessTokenConverter = new DefaultAccessTokenConverter();
+        defaultAccessTokenConverter.setUserTokenConverter(new UserClaimsAuthenticationConverter());
+
+        JwtAccessTokenConverter accessTokenConverter = new JwtAccessTokenConverter();
+        accessTokenConverter.setAccessTokenConverter(defaultAccessTokenConverter);
+        accessTokenConverter.setSigningKey(jwtSigningKey);
+        accessTokenConverter.afterPropertiesSet();
+        return accessTokenConverter;
+    }
 }
@@ -0,0 +1,26 @@
+package br.com.messenger.gae_service.config;
+
+import br.com.messenger.gae_service.model.User;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.provider.token.DefaultUserAuthenticationConverter;
+
+import java.util.Map;
+
+public class UserClaimsAuthenticationConverter extends DefaultUserAuthenticationConverter {
+
+    @Override
+    public Authentication extractAuthentication(Map<String, ?> map) {
+
+        if (!map.containsKey(USERNAME) || !map.containsKey(UserClaimsTokenEnhancer.CLAIM_ROLE))
+            return super.extractAuthentication(map);
+
+        User user = new User();
+        user.setEmail((String) map.get(UserClaimsTokenEnhancer.CLAIM_EMAIL));
+        user.setCpf((String) map.get(UserClaimsTokenEnhancer.CLAIM_CPF));
+        user.setRole((String) map.get(UserClaimsTokenEnhancer.CLAIM_ROLE));
+        user.setEnabled(true);
+
+        return new UsernamePasswordAuthenticationToken(user, "N/A", user.getAuthorities());
+    }
+}
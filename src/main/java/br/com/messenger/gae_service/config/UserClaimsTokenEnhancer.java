@@ -0,0 +1,34 @@
+package br.com.messenger.gae_service.config;
+
+import br.com.messenger.gae_service.model.User;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenEnhancer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class UserClaimsTokenEnhancer implements TokenEnhancer {
+
+    public static final String CLAIM_EMAIL = "email";
+    public static final String CLAIM_CPF = "cpf";
+    public static final String CLAIM_ROLE = "role";
+
+    @Override
+    public OAuth2AccessToken enhance(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+
+        if (authentication.isClientOnly() || !(authentication.getPrincipal() instanceof User))
+            return accessToken;
+
+        User user = (User) authentication.getPrincipal();
+        Map<String, Object> additionalInformation = new HashMap<>(accessToken.getAdditionalInformation());
+        additionalInformation.put(CLAIM_EMAIL, user.getEmail());
+        additionalInformation.put(CLAIM_CPF, user.getCpf());
+        additionalInformation.put(CLAIM_ROLE, user.getRole());
+
+        DefaultOAuth2AccessToken enhancedToken = new DefaultOAuth2AccessToken(accessToken);
+        enhancedToken.setAdditionalInformation(additionalInformation);
+        return enhancedToken;
+    }
+}
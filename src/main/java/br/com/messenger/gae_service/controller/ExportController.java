@@ -0,0 +1,75 @@
+package br.com.messenger.gae_service.controller;
+
+import br.com.messenger.gae_service.repository.ProductOfInterestRepository;
+import br.com.messenger.gae_service.repository.UserRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+@RestController
+@RequestMapping("/api/export")
+public class ExportController {
+
+    private static final Logger log = Logger.getLogger(ExportController.class.getName());
+
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    ProductOfInterestRepository productOfInterestRepository;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/users")
+    public void exportUsers(HttpServletResponse response) throws IOException {
+        try (JsonGenerator generator = createGenerator(response)) {
+            userRepository.forEachUser(writeLine(generator));
+        }
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/products-of-interest")
+    public void exportProductsOfInterest(HttpServletResponse response) throws IOException {
+        try (JsonGenerator generator = createGenerator(response)) {
+            productOfInterestRepository.forEachProductOfInterest(writeLine(generator));
+        }
+    }
+
+    private JsonGenerator createGenerator(HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    private <T> Consumer<T> writeLine(JsonGenerator generator) {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return value -> {
+            try {
+                writer.writeValue(generator, value);
+                generator.writeRaw('\n');
+            } catch (IOException e) {
+                log.severe("Falha ao exportar registro: " + e.getMessage());
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+}
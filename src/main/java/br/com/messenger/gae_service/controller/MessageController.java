@@ -1,17 +1,21 @@
 package br.com.messenger.gae_service.controller;
 
+import br.com.messenger.gae_service.model.Notification;
+import br.com.messenger.gae_service.model.NotificationJob;
+import br.com.messenger.gae_service.model.NotificationResultPage;
 import br.com.messenger.gae_service.model.Order;
 import br.com.messenger.gae_service.model.PriceUpdate;
-import br.com.messenger.gae_service.model.ProductOfInterest;
 import br.com.messenger.gae_service.model.User;
-import br.com.messenger.gae_service.repository.ProductOfInterestRepository;
 import br.com.messenger.gae_service.repository.UserRepository;
+import br.com.messenger.gae_service.service.InvalidTokenPruner;
+import br.com.messenger.gae_service.service.NotificationDispatcher;
+import br.com.messenger.gae_service.service.NotificationRenderer;
+import br.com.messenger.gae_service.service.PriceUpdateCoalescer;
+import br.com.messenger.gae_service.service.PriceUpdateService;
+import br.com.messenger.gae_service.util.NotificationStatus;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
-import com.google.firebase.messaging.FirebaseMessaging;
-import com.google.firebase.messaging.FirebaseMessagingException;
-import com.google.firebase.messaging.Message;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -21,8 +25,9 @@ import org.springframework.web.bind.annotation.*;
 import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Logger;
 
@@ -31,11 +36,26 @@ import java.util.logging.Logger;
 public class MessageController {
     private static final Logger log = Logger.getLogger(MessageController.class.getName());
 
+    private static final int MAX_PRICE_UPDATES = 1000;
+    private static final int MAX_RESULTS_PAGE_SIZE = 500;
+
     @Autowired
     UserRepository userRepository;
 
     @Autowired
-    ProductOfInterestRepository productOfInterestRepository;
+    NotificationDispatcher notificationDispatcher;
+
+    @Autowired
+    PriceUpdateService priceUpdateService;
+
+    @Autowired
+    PriceUpdateCoalescer priceUpdateCoalescer;
+
+    @Autowired
+    InvalidTokenPruner invalidTokenPruner;
+
+    @Autowired
+    NotificationRenderer notificationRenderer;
 
     @PostConstruct
     public void initialize() {
@@ -53,61 +73,90 @@ public class MessageController {
 
     @PreAuthorize("hasRole('ADMIN')")
     @PostMapping(path = "/price-update")
-    public ResponseEntity<String> sendPriceUpdateMessage(@RequestBody PriceUpdate priceUpdate) {
+    public ResponseEntity<?> sendPriceUpdateMessage(@RequestBody PriceUpdate priceUpdate) {
 
         String validateMsg = validatePriceUpdate(priceUpdate);
 
         if (!validateMsg.isEmpty())
             return new ResponseEntity<>(validateMsg, HttpStatus.BAD_REQUEST);
 
-        List<ProductOfInterest> productsOfInterest = productOfInterestRepository.getProductsOfInterestBySalesProviderProductIdAndMinPriceAlert(priceUpdate.getProductId(), priceUpdate.getNewProductPrice());
+        if (priceUpdateCoalescer.isEnabled())
+            return new ResponseEntity<NotificationJob>(priceUpdateCoalescer.submit(Collections.singletonList(priceUpdate)), HttpStatus.ACCEPTED);
+
+        Optional<NotificationJob> optJob = priceUpdateService.notifyPriceUpdates(Collections.singletonList(priceUpdate));
 
-        if (productsOfInterest.size() > 0) {
+        if (optJob.isPresent())
+            return new ResponseEntity<NotificationJob>(optJob.get(), HttpStatus.ACCEPTED);
+        else
+            return new ResponseEntity<>("Nenhum produto de interesse com salesProviderProductId '" + priceUpdate.getProductId() + "' e minPriceAlert menor ou igual a 'R$" + priceUpdate.getNewProductPrice() + "' foi encontrado para notificar.", HttpStatus.NOT_FOUND);
+    }
 
-            List<String> responseList = new ArrayList<>();
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping(path = "/price-updates")
+    public ResponseEntity<?> sendPriceUpdateMessages(@RequestBody List<PriceUpdate> priceUpdates) {
 
-            for (ProductOfInterest productOfInterest : productsOfInterest) {
+        if (priceUpdates == null || priceUpdates.isEmpty())
+            return new ResponseEntity<>("A lista de atualizações de preço não pode ser vazia.", HttpStatus.BAD_REQUEST);
 
-                Optional<User> optUser = userRepository.getByCpf(productOfInterest.getCpf());
+        if (priceUpdates.size() > MAX_PRICE_UPDATES)
+            return new ResponseEntity<>("A lista de atualizações de preço não pode ter mais de " + MAX_PRICE_UPDATES + " itens.", HttpStatus.BAD_REQUEST);
 
-                if (optUser.isPresent()) {
-                    User user = optUser.get();
+        for (int i = 0; i < priceUpdates.size(); i++) {
+            String validateMsg = validatePriceUpdate(priceUpdates.get(i));
+
+            if (!validateMsg.isEmpty())
+                return new ResponseEntity<>("Item " + i + ": " + validateMsg, HttpStatus.BAD_REQUEST);
+        }
 
-                    if (user.getFcmRegId() != null) {
+        if (priceUpdateCoalescer.isEnabled())
+            return new ResponseEntity<NotificationJob>(priceUpdateCoalescer.submit(priceUpdates), HttpStatus.ACCEPTED);
 
-                        try {
-                            String notification = getPriceUpdateNotification(user, productOfInterest, priceUpdate);
+        Optional<NotificationJob> optJob = priceUpdateService.notifyPriceUpdates(priceUpdates);
 
-                            Message message = Message.builder()
-                                    .putData("salesMessage", notification)
-                                    .setToken(user.getFcmRegId())
-                                    .build();
+        if (optJob.isPresent())
+            return new ResponseEntity<NotificationJob>(optJob.get(), HttpStatus.ACCEPTED);
+        else
+            return new ResponseEntity<>("Nenhum produto de interesse foi encontrado para notificar com as atualizações de preço informadas.", HttpStatus.NOT_FOUND);
+    }
 
-                            String response = FirebaseMessaging.getInstance().send(message);
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/jobs/{jobId}")
+    public ResponseEntity<?> getNotificationJob(@PathVariable String jobId) {
 
-                            log.info("Notificação enviada: " + notification);
-                            log.info("Resposta do Firebase Cloud Messaging: " + response);
+        Optional<NotificationJob> optJob = notificationDispatcher.getJob(jobId);
 
-                            responseList.add("STATUS: Notificação enviada. MOTIVO: Usuário com cpf: " + user.getCpf() + " possui o produto de interesse com Preço mínimo para alerta de R$" + productOfInterest.getMinPriceAlert());
-                        } catch (FirebaseMessagingException e) {
-                            responseList.add("STATUS: Notificação não enviada. MOTIVO: Falha ao enviar notificação: " + e.getMessage());
-                        }
-                    } else {
-                        responseList.add("STATUS: Notificação não enviada. MOTIVO: Usuário com cpf: " + productOfInterest.getCpf() + " e produtos de interesse a notificar não possui fcmRegId cadastrado.");
-                    }
-                } else {
-                    responseList.add("STATUS: Notificação não enviada. MOTIVO: Usuário com cpf: " + productOfInterest.getCpf() + " e produtos de interesse a notificar não encontrado na base pelo cpf.");
-                }
-            }
-            return new ResponseEntity<>(getPriceUpdateResponse(responseList), HttpStatus.OK);
-        } else {
-            return new ResponseEntity<>("Nenhum produto de interesse com salesProviderProductId '" + priceUpdate.getProductId() + "' e minPriceAlert menor ou igual a 'R$" + priceUpdate.getNewProductPrice() + "' foi encontrado para notificar.", HttpStatus.NOT_FOUND);
+        if (optJob.isPresent())
+            return new ResponseEntity<NotificationJob>(optJob.get(), HttpStatus.OK);
+        else
+            return new ResponseEntity<>("Job de notificação: " + jobId + " - não encontrado", HttpStatus.NOT_FOUND);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/jobs/{jobId}/results")
+    public ResponseEntity<?> getNotificationResults(@PathVariable String jobId, @RequestParam(required = false) NotificationStatus status, @RequestParam(defaultValue = "100") int limit, @RequestParam(required = false) String cursor) {
+
+        if (limit <= 0 || limit > MAX_RESULTS_PAGE_SIZE)
+            return new ResponseEntity<>("Parâmetro de requisição limit deve estar entre 1 e " + MAX_RESULTS_PAGE_SIZE + ".", HttpStatus.BAD_REQUEST);
+
+        if (!notificationDispatcher.getJob(jobId).isPresent())
+            return new ResponseEntity<>("Job de notificação: " + jobId + " - não encontrado", HttpStatus.NOT_FOUND);
+
+        try {
+            return new ResponseEntity<NotificationResultPage>(notificationDispatcher.getResults(jobId, status, limit, cursor), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>("Parâmetro de requisição cursor inválido.", HttpStatus.BAD_REQUEST);
         }
     }
 
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/invalid-tokens")
+    public Map<String, Long> getInvalidTokenCounters() {
+        return invalidTokenPruner.getCounters();
+    }
+
     @PreAuthorize("hasRole('ADMIN')")
     @PostMapping(path = "/order-status")
-    public ResponseEntity<String> sendOrderMessage(@RequestBody Order order) {
+    public ResponseEntity<?> sendOrderMessage(@RequestBody Order order) {
 
         String validateMsg = validateOrder(order, null);
 
@@ -126,21 +175,13 @@ public class MessageController {
                 return new ResponseEntity<>(validateMsg, HttpStatus.BAD_REQUEST);
 
             if (user.getFcmRegId() != null) {
-                try {
-                    Message message = Message.builder()
-                            .putData("salesMessage", getOrderNotification(user, order))
-                            .setToken(user.getFcmRegId())
-                            .build();
+                NotificationJob job = notificationDispatcher.createJob();
+                job.addTotal(1);
+                notificationDispatcher.dispatch(job, Collections.singletonList(new Notification(user.getCpf(), user.getFcmRegId(), notificationRenderer.renderOrder(notificationRenderer.getDefaultLocale(), user, order))));
 
-                    String response = FirebaseMessaging.getInstance().send(message);
+                log.info("Notificação enfileirada para o usuário com cpf: " + user.getCpf() + " - com a messagem: " + order.getNotification());
 
-                    log.info("Notificação enviada para o usuário com cpf: " + user.getCpf() + " - com a messagem: " + order.getNotification());
-                    log.info("Resposta do Firebase Cloud Messaging: " + response);
-
-                    return new ResponseEntity<>("Notificação enviada com sucesso para o usuário com cpf: " + user.getCpf(), HttpStatus.OK);
-                } catch (FirebaseMessagingException e) {
-                    return new ResponseEntity<>("Falha ao enviar notificação: " + e.getMessage(), HttpStatus.BAD_REQUEST);
-                }
+                return new ResponseEntity<NotificationJob>(job, HttpStatus.ACCEPTED);
             } else {
                 return new ResponseEntity<>("Usuário com cpf: " + user.getCpf() + " - não registrado no FCM", HttpStatus.PRECONDITION_FAILED);
             }
@@ -149,47 +190,6 @@ public class MessageController {
         }
     }
 
-    private String getPriceUpdateResponse(List<String> responseList) {
-        StringBuilder response = new StringBuilder();
-
-        for (String responseItem : responseList) {
-            response.append(responseItem);
-            response.append(System.getProperty("line.separator"));
-        }
-
-        return response.toString();
-    }
-
-    private String getPriceUpdateNotification(User user, ProductOfInterest productOfInterest, PriceUpdate priceUpdate) {
-        StringBuilder notification = new StringBuilder();
-        notification.append("Olá usuário: " + user.getEmail());
-        notification.append(System.getProperty("line.separator"));
-        notification.append("CPF: " + user.getCpf());
-        notification.append(System.getProperty("line.separator"));
-        notification.append("Seu produto de interesse com salesProviderProductId: " + productOfInterest.getSalesProviderProductId() + " possui a seguinte atualização:");
-        notification.append(System.getProperty("line.separator"));
-        notification.append("Novo preço do produto: R$" + priceUpdate.getNewProductPrice());
-        notification.append(System.getProperty("line.separator"));
-        notification.append("Preço mínimo para alerta: R$" + productOfInterest.getMinPriceAlert());
-        return notification.toString();
-    }
-
-    private String getOrderNotification(User user, Order order) {
-        StringBuilder notification = new StringBuilder();
-        notification.append("Olá usuário: " + user.getEmail());
-        notification.append(System.getProperty("line.separator"));
-        notification.append("CPF: " + user.getCpf());
-        notification.append(System.getProperty("line.separator"));
-        notification.append("ID provedor de vendas: " + user.getSalesProviderUserId());
-        notification.append(System.getProperty("line.separator"));
-        notification.append("Seu pedido de código " + order.getOrderId() + " possui a seguinte atualização:");
-        notification.append(System.getProperty("line.separator"));
-        notification.append(order.getNotification());
-        notification.append(System.getProperty("line.separator"));
-        notification.append("Novo status do pedido: " + order.getNewOrderStatus());
-        return notification.toString();
-    }
-
     private String validateOrder(Order order, @Nullable User user) {
         if (user == null) {
             if (order.getCpf() == null || order.getCpf().trim().isEmpty())
@@ -0,0 +1,72 @@
+package br.com.messenger.gae_service.controller;
+
+import br.com.messenger.gae_service.repository.KeyMigrationRepository;
+import br.com.messenger.gae_service.service.KeyMigrationService;
+import br.com.messenger.gae_service.service.ProductTopicService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.logging.Logger;
+
+@RestController
+@RequestMapping("/api/migrations")
+public class MigrationController {
+
+    private static final Logger log = Logger.getLogger(MigrationController.class.getName());
+
+    private static final int MAX_BATCH_SIZE = 500;
+
+    @Autowired
+    KeyMigrationRepository keyMigrationRepository;
+
+    @Autowired
+    KeyMigrationService keyMigrationService;
+
+    @Autowired
+    ProductTopicService productTopicService;
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping(path = "/root-keys/{kind}")
+    public ResponseEntity<String> migrateToRootKeys(@PathVariable String kind, @RequestParam(defaultValue = "500") int batchSize) {
+
+        if (!keyMigrationRepository.isMigratableKind(kind))
+            return new ResponseEntity<>("Tipo de entidade '" + kind + "' não possui chaves a migrar.", HttpStatus.BAD_REQUEST);
+
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE)
+            return new ResponseEntity<>("Parâmetro de requisição batchSize deve estar entre 1 e " + MAX_BATCH_SIZE + ".", HttpStatus.BAD_REQUEST);
+
+        String jobId = keyMigrationService.startRootKeysMigration(kind, batchSize);
+        log.info("Migração de chaves do tipo " + kind + " enfileirada no job " + jobId);
+
+        return new ResponseEntity<>("Migração de entidades do tipo '" + kind + "' para chaves raiz enfileirada no job " + jobId + ".", HttpStatus.ACCEPTED);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping(path = "/named-keys/{kind}")
+    public ResponseEntity<String> migrateToNamedKeys(@PathVariable String kind, @RequestParam(defaultValue = "500") int batchSize) {
+
+        if (!keyMigrationRepository.isMigratableKind(kind))
+            return new ResponseEntity<>("Tipo de entidade '" + kind + "' não possui chaves a migrar.", HttpStatus.BAD_REQUEST);
+
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE)
+            return new ResponseEntity<>("Parâmetro de requisição batchSize deve estar entre 1 e " + MAX_BATCH_SIZE + ".", HttpStatus.BAD_REQUEST);
+
+        String jobId = keyMigrationService.startNamedKeysMigration(kind, batchSize);
+        log.info("Migração de chaves nomeadas do tipo " + kind + " enfileirada no job " + jobId);
+
+        return new ResponseEntity<>("Migração de entidades do tipo '" + kind + "' para chaves nomeadas enfileirada no job " + jobId + ".", HttpStatus.ACCEPTED);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping(path = "/topic-subscriptions")
+    public ResponseEntity<String> subscribeProductTopics() {
+
+        int subscribed = productTopicService.subscribeAll();
+        log.info("Inscrição em tópicos de produtos enfileirada para " + subscribed + " produtos de interesse");
+
+        return new ResponseEntity<>(subscribed + " produtos de interesse enfileirados para inscrição nos tópicos de produto.", HttpStatus.OK);
+    }
+}
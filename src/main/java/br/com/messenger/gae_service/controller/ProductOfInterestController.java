@@ -3,9 +3,12 @@ package br.com.messenger.gae_service.controller;
 import br.com.messenger.gae_service.exception.ProductOfInterestNotFoundException;
 import br.com.messenger.gae_service.exception.UserNotFoundException;
 import br.com.messenger.gae_service.model.ProductOfInterest;
+import br.com.messenger.gae_service.model.ProductOfInterestResult;
 import br.com.messenger.gae_service.model.User;
 import br.com.messenger.gae_service.repository.ProductOfInterestRepository;
 import br.com.messenger.gae_service.repository.UserRepository;
+import br.com.messenger.gae_service.service.ProductTopicService;
+import br.com.messenger.gae_service.util.BatchItemStatus;
 import br.com.messenger.gae_service.util.CheckRole;
 import br.com.messenger.gae_service.util.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,12 +16,10 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Nullable;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.logging.Logger;
 
 @RestController
@@ -27,11 +28,16 @@ public class ProductOfInterestController {
 
     private static final Logger log = Logger.getLogger(UserController.class.getName());
 
+    private static final int MAX_BATCH_SIZE = 500;
+
+    @Autowired
+    ProductOfInterestRepository productOfInterestRepository;
+
     @Autowired
     UserRepository userRepository;
 
     @Autowired
-    ProductOfInterestRepository productOfInterestRepository;
+    ProductTopicService productTopicService;
 
     @Autowired
     CheckRole checkRole;
@@ -69,7 +75,10 @@ public class ProductOfInterestController {
 
         if (canRunThisOperation(authentication, productOfInterest.getCpf())) {
             try {
-                return new ResponseEntity<ProductOfInterest>(productOfInterestRepository.saveProductOfInterest(productOfInterest), HttpStatus.OK);
+                Optional<ProductOfInterest> optPreviousProductOfInterest = productOfInterestRepository.getProductOfInterest(productOfInterest.getCpf(), productOfInterest.getSalesProviderProductId());
+                ProductOfInterest savedProductOfInterest = productOfInterestRepository.saveProductOfInterest(productOfInterest);
+                productTopicService.updateSubscription(optPreviousProductOfInterest.orElse(null), savedProductOfInterest);
+                return new ResponseEntity<ProductOfInterest>(savedProductOfInterest, HttpStatus.OK);
             } catch (UserNotFoundException e) {
                 return new ResponseEntity<>(e.getMessage(), HttpStatus.PRECONDITION_FAILED);
             } catch (Exception e) {
@@ -80,6 +89,90 @@ public class ProductOfInterestController {
         }
     }
 
+    @PostMapping(path = "/{cpf}/batch")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('USER')")
+    public ResponseEntity<?> saveProductsOfInterest(@PathVariable String cpf, @RequestBody List<ProductOfInterest> productsOfInterest, Authentication authentication) {
+
+        if (productsOfInterest.isEmpty() || productsOfInterest.size() > MAX_BATCH_SIZE)
+            return new ResponseEntity<>("A lista de produtos de interesse deve ter entre 1 e " + MAX_BATCH_SIZE + " itens.", HttpStatus.BAD_REQUEST);
+
+        if (productsOfInterest.contains(null))
+            return new ResponseEntity<>("Os itens da lista de produtos de interesse não podem ser nulos.", HttpStatus.BAD_REQUEST);
+
+        if (!canRunThisOperation(authentication, cpf))
+            return new ResponseEntity<>("Usuário não autorizado", HttpStatus.FORBIDDEN);
+
+        Map<Long, ProductOfInterest> validProductsOfInterest = new LinkedHashMap<>();
+        Map<ProductOfInterest, ProductOfInterestResult> invalidResults = new IdentityHashMap<>();
+
+        for (ProductOfInterest productOfInterest : productsOfInterest) {
+
+            if (productOfInterest.getCpf() == null)
+                productOfInterest.setCpf(cpf);
+
+            String validateMsg = !cpf.equals(productOfInterest.getCpf()) ? "A propriedade 'cpf' do modelo deve ser igual ao cpf informado no endereço." : validateProductOfInterest(productOfInterest);
+
+            if (validateMsg.isEmpty()) {
+                validProductsOfInterest.put(productOfInterest.getSalesProviderProductId(), productOfInterest);
+            } else {
+                ProductOfInterestResult result = new ProductOfInterestResult(productOfInterest.getSalesProviderProductId(), BatchItemStatus.INVALID);
+                result.setMessage(validateMsg);
+                invalidResults.put(productOfInterest, result);
+            }
+        }
+
+        try {
+            Map<Long, ProductOfInterestResult> savedResults = new HashMap<>();
+
+            if (!validProductsOfInterest.isEmpty()) {
+                for (ProductOfInterestResult result : productOfInterestRepository.saveProductsOfInterest(cpf, validProductsOfInterest.values())) {
+                    productTopicService.updateSubscription(result.getPreviousProductOfInterest(), result.getProductOfInterest());
+                    savedResults.put(result.getSalesProviderProductId(), result);
+                }
+            }
+
+            List<ProductOfInterestResult> results = new ArrayList<>();
+
+            for (ProductOfInterest productOfInterest : productsOfInterest)
+                results.add(invalidResults.containsKey(productOfInterest) ? invalidResults.get(productOfInterest) : savedResults.get(productOfInterest.getSalesProviderProductId()));
+
+            return new ResponseEntity<List<ProductOfInterestResult>>(results, HttpStatus.OK);
+        } catch (UserNotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.PRECONDITION_FAILED);
+        } catch (Exception e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PostMapping(path = "/{cpf}/batch-delete")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('USER')")
+    public ResponseEntity<?> deleteProductsOfInterest(@PathVariable String cpf, @RequestBody List<Long> salesProviderProductIds, Authentication authentication) {
+
+        if (salesProviderProductIds.isEmpty() || salesProviderProductIds.size() > MAX_BATCH_SIZE)
+            return new ResponseEntity<>("A lista de salesProviderProductId deve ter entre 1 e " + MAX_BATCH_SIZE + " itens.", HttpStatus.BAD_REQUEST);
+
+        for (Long salesProviderProductId : salesProviderProductIds) {
+            if (salesProviderProductId == null || salesProviderProductId <= 0)
+                return new ResponseEntity<>("Os itens da lista de salesProviderProductId não podem ser nulos e nem menores ou iguais a 0.", HttpStatus.BAD_REQUEST);
+        }
+
+        if (!canRunThisOperation(authentication, cpf))
+            return new ResponseEntity<>("Usuário não autorizado", HttpStatus.FORBIDDEN);
+
+        try {
+            List<ProductOfInterestResult> results = productOfInterestRepository.deleteProductsOfInterest(cpf, new LinkedHashSet<>(salesProviderProductIds));
+
+            for (ProductOfInterestResult result : results) {
+                if (result.getStatus() == BatchItemStatus.DELETED)
+                    productTopicService.updateSubscription(result.getProductOfInterest(), null);
+            }
+
+            return new ResponseEntity<List<ProductOfInterestResult>>(results, HttpStatus.OK);
+        } catch (Exception e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @DeleteMapping(path = "/{cpf}/{salesProviderProductId}")
     @PreAuthorize("hasRole('ADMIN') or hasRole('USER')")
     public ResponseEntity<?> deleteProductOfInterest(@PathVariable("cpf") String cpf, @PathVariable("salesProviderProductId") String salesProviderProductId, Authentication authentication) {
@@ -96,7 +189,9 @@ public class ProductOfInterestController {
 
         if (canRunThisOperation(authentication, cpf)) {
             try {
-                return new ResponseEntity<ProductOfInterest>(productOfInterestRepository.deleteProductOfInterest(cpf, Long.parseLong(salesProviderProductId)), HttpStatus.OK);
+                ProductOfInterest deletedProductOfInterest = productOfInterestRepository.deleteProductOfInterest(cpf, Long.parseLong(salesProviderProductId));
+                productTopicService.updateSubscription(deletedProductOfInterest, null);
+                return new ResponseEntity<ProductOfInterest>(deletedProductOfInterest, HttpStatus.OK);
             } catch (ProductOfInterestNotFoundException e) {
                 return new ResponseEntity<>(e.getMessage(), HttpStatus.PRECONDITION_FAILED);
             } catch (Exception e) {
@@ -112,13 +207,8 @@ public class ProductOfInterestController {
         if (checkRole.hasRoleAdmin(authentication))
             return true;
 
-        UserDetails authenticatedUser = (UserDetails) authentication.getPrincipal();
-        Optional<User> optUser = userRepository.getByEmail(authenticatedUser.getUsername());
-
-        if (optUser.isPresent())
-            return (optUser.get().getCpf().equals(cpf));
-        else
-            return false;
+        Optional<User> optAuthenticatedUser = userRepository.getByEmail(authentication.getName());
+        return optAuthenticatedUser.isPresent() && cpf.equals(optAuthenticatedUser.get().getCpf());
     }
 
     private String validateModel(Operation operation, @Nullable ProductOfInterest productOfInterest, @Nullable String requestParam, @Nullable String paramName, @Nullable Boolean validateAsLong) {
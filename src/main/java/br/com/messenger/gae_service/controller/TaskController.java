@@ -0,0 +1,172 @@
+package br.com.messenger.gae_service.controller;
+
+import br.com.messenger.gae_service.repository.CachedTokenStore;
+import br.com.messenger.gae_service.repository.LastNotifiedPriceRepository;
+import br.com.messenger.gae_service.service.KeyMigrationService;
+import br.com.messenger.gae_service.service.LastLoginWriter;
+import br.com.messenger.gae_service.service.NotificationDispatcher;
+import br.com.messenger.gae_service.service.NotificationOutboxWorker;
+import br.com.messenger.gae_service.service.PriceUpdateCoalescer;
+import br.com.messenger.gae_service.service.ProductTopicService;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+@RestController
+@RequestMapping("/tasks")
+public class TaskController {
+
+    private static final Logger log = Logger.getLogger(TaskController.class.getName());
+
+    private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+    private static final String CRON_HEADER = "X-Appengine-Cron";
+
+    @Autowired
+    NotificationOutboxWorker notificationOutboxWorker;
+
+    @Autowired
+    NotificationDispatcher notificationDispatcher;
+
+    @Autowired
+    LastLoginWriter lastLoginWriter;
+
+    @Autowired
+    PriceUpdateCoalescer priceUpdateCoalescer;
+
+    @Autowired
+    ProductTopicService productTopicService;
+
+    @Autowired
+    KeyMigrationService keyMigrationService;
+
+    @Autowired
+    CachedTokenStore cachedTokenStore;
+
+    @Autowired
+    LastNotifiedPriceRepository lastNotifiedPriceRepository;
+
+    @PostMapping(path = "/notifications/drain")
+    public ResponseEntity<String> drainNotifications(@RequestHeader(name = QUEUE_NAME_HEADER, required = false) String queueName, @RequestParam String jobId, @RequestParam String ids) {
+
+        if (queueName == null)
+            return new ResponseEntity<>("Requisição permitida apenas para a fila de tarefas", HttpStatus.FORBIDDEN);
+
+        List<Long> notificationIds = parseIds(ids);
+
+        notificationOutboxWorker.drain(jobId, notificationIds);
+        log.info("Lote de " + notificationIds.size() + " notificações do job " + jobId + " processado pela fila " + queueName);
+
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/notifications/digest")
+    public ResponseEntity<String> dispatchDigests(@RequestHeader(name = QUEUE_NAME_HEADER, required = false) String queueName, @RequestParam String jobId, @RequestParam String ids) {
+
+        if (queueName == null)
+            return new ResponseEntity<>("Requisição permitida apenas para a fila de tarefas", HttpStatus.FORBIDDEN);
+
+        List<Long> notificationIds = parseIds(ids);
+
+        notificationDispatcher.dispatchDigests(jobId, notificationIds);
+        log.info("Lote de " + notificationIds.size() + " notificações agrupadas do job " + jobId + " processado pela fila " + queueName);
+
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/logins/flush")
+    public ResponseEntity<String> flushLogins(@RequestHeader(name = QUEUE_NAME_HEADER, required = false) String queueName, @RequestParam long windowId) {
+
+        if (queueName == null)
+            return new ResponseEntity<>("Requisição permitida apenas para a fila de tarefas", HttpStatus.FORBIDDEN);
+
+        lastLoginWriter.flush(windowId);
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/price-updates/flush")
+    public ResponseEntity<String> flushPriceUpdates(@RequestHeader(name = QUEUE_NAME_HEADER, required = false) String queueName, @RequestParam long windowId) {
+
+        if (queueName == null)
+            return new ResponseEntity<>("Requisição permitida apenas para a fila de tarefas", HttpStatus.FORBIDDEN);
+
+        priceUpdateCoalescer.flush(windowId);
+        log.info("Janela de atualizações de preço " + windowId + " processada pela fila " + queueName);
+
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/topics/reconcile")
+    public ResponseEntity<String> reconcileTopicSubscriptions(@RequestHeader(name = QUEUE_NAME_HEADER, required = false) String queueName, @RequestParam(name = "subscription") List<String> subscriptions) {
+
+        if (queueName == null)
+            return new ResponseEntity<>("Requisição permitida apenas para a fila de tarefas", HttpStatus.FORBIDDEN);
+
+        try {
+            productTopicService.reconcile(subscriptions);
+        } catch (FirebaseMessagingException e) {
+            log.severe("Falha ao atualizar inscrições em tópicos de " + subscriptions.size() + " produtos de interesse: " + e.getMessage());
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        log.info("Lote de " + subscriptions.size() + " inscrições em tópicos processado pela fila " + queueName);
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/migrations/root-keys")
+    public ResponseEntity<String> migrateToRootKeys(@RequestHeader(name = QUEUE_NAME_HEADER, required = false) String queueName, @RequestParam String jobId, @RequestParam String kind, @RequestParam int batchSize,
+                                                    @RequestParam(required = false) String cursor, @RequestParam int page, @RequestParam int migrated, @RequestParam int collisions) {
+
+        if (queueName == null)
+            return new ResponseEntity<>("Requisição permitida apenas para a fila de tarefas", HttpStatus.FORBIDDEN);
+
+        keyMigrationService.migrateRootKeysPage(jobId, kind, batchSize, cursor, page, migrated, collisions);
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/migrations/named-keys")
+    public ResponseEntity<String> migrateToNamedKeys(@RequestHeader(name = QUEUE_NAME_HEADER, required = false) String queueName, @RequestParam String jobId, @RequestParam String kind, @RequestParam int batchSize,
+                                                     @RequestParam(required = false) String cursor, @RequestParam int page, @RequestParam int migrated, @RequestParam int collisions) {
+
+        if (queueName == null)
+            return new ResponseEntity<>("Requisição permitida apenas para a fila de tarefas", HttpStatus.FORBIDDEN);
+
+        keyMigrationService.migrateNamedKeysPage(jobId, kind, batchSize, cursor, page, migrated, collisions);
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    @GetMapping(path = "/tokens/purge")
+    public ResponseEntity<String> purgeExpiredTokens(@RequestHeader(name = CRON_HEADER, required = false) String cron) {
+
+        if (cron == null)
+            return new ResponseEntity<>("Requisição permitida apenas para o cron", HttpStatus.FORBIDDEN);
+
+        cachedTokenStore.purgeExpiredTokens();
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    @GetMapping(path = "/notified-prices/purge")
+    public ResponseEntity<String> purgeExpiredNotifiedPrices(@RequestHeader(name = CRON_HEADER, required = false) String cron) {
+
+        if (cron == null)
+            return new ResponseEntity<>("Requisição permitida apenas para o cron", HttpStatus.FORBIDDEN);
+
+        lastNotifiedPriceRepository.purgeExpired();
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+
+    private List<Long> parseIds(String ids) {
+
+        List<Long> notificationIds = new ArrayList<>();
+
+        for (String id : ids.split(","))
+            notificationIds.add(Long.parseLong(id));
+
+        return notificationIds;
+    }
+}
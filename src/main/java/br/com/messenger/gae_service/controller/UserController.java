@@ -3,7 +3,10 @@ package br.com.messenger.gae_service.controller;
 import br.com.messenger.gae_service.exception.UserAlreadyExistsException;
 import br.com.messenger.gae_service.exception.UserNotFoundException;
 import br.com.messenger.gae_service.model.User;
+import br.com.messenger.gae_service.model.UserPage;
+import br.com.messenger.gae_service.repository.CachedTokenStore;
 import br.com.messenger.gae_service.repository.UserRepository;
+import br.com.messenger.gae_service.service.ProductTopicService;
 import br.com.messenger.gae_service.util.CheckRole;
 import br.com.messenger.gae_service.util.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,11 +14,12 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Nullable;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -27,16 +31,32 @@ public class UserController {
 
     private static final Logger log = Logger.getLogger(UserController.class.getName());
 
+    private static final int MAX_PAGE_SIZE = 500;
+
     @Autowired
     UserRepository userRepository;
 
+    @Autowired
+    ProductTopicService productTopicService;
+
+    @Autowired
+    CachedTokenStore cachedTokenStore;
+
     @Autowired
     CheckRole checkRole;
 
     @PreAuthorize("hasRole('ADMIN')")
     @GetMapping
-    public ResponseEntity<List<User>> getUsers() {
-        return new ResponseEntity<List<User>>(userRepository.getUsers(), HttpStatus.OK);
+    public ResponseEntity<?> getUsers(@RequestParam(defaultValue = "50") int limit, @RequestParam(required = false) String cursor, @RequestParam(defaultValue = "false") boolean projection) {
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE)
+            return new ResponseEntity<>("Parâmetro de requisição limit deve estar entre 1 e " + MAX_PAGE_SIZE + ".", HttpStatus.BAD_REQUEST);
+
+        try {
+            return new ResponseEntity<UserPage>(userRepository.getUsers(limit, cursor, projection), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>("Parâmetro de requisição cursor inválido.", HttpStatus.BAD_REQUEST);
+        }
     }
 
     @PreAuthorize("hasRole('ADMIN')")
@@ -72,7 +92,14 @@ public class UserController {
                 user.setRole("ROLE_USER");
 
             try {
-                return new ResponseEntity<User>(userRepository.updateUser(user, email, true, true, false), HttpStatus.OK);
+                Optional<User> optPreviousUser = userRepository.getByEmail(email);
+                User updatedUser = userRepository.updateUser(user, email, true, true, false);
+
+                if (optPreviousUser.isPresent() && updatedUser.getCpf() != null)
+                    productTopicService.moveSubscriptions(updatedUser.getCpf(), optPreviousUser.get().getFcmRegId(), updatedUser.getFcmRegId());
+
+                revokeTokensIfAccessChanged(optPreviousUser, updatedUser);
+                return new ResponseEntity<User>(updatedUser, HttpStatus.OK);
             } catch (UserAlreadyExistsException e) {
                 return new ResponseEntity<>(e.getMessage(), HttpStatus.PRECONDITION_FAILED);
             } catch (UserNotFoundException e) {
@@ -85,6 +112,61 @@ public class UserController {
         }
     }
 
+    @PreAuthorize("hasRole('ADMIN') or hasRole('USER')")
+    @PatchMapping(path = "/byemail")
+    public ResponseEntity<?> patchUser(@RequestBody Map<String, Object> fields, @RequestParam String email, Authentication authentication) {
+
+        if (!canRunThisOperation(authentication, email))
+            return new ResponseEntity<>("Usuário não autorizado", HttpStatus.FORBIDDEN);
+
+        Map<String, Object> patchFields = new HashMap<>();
+        String validateMsg = validatePatch(fields, checkRole.hasRoleAdmin(authentication), patchFields);
+
+        if (!validateMsg.isEmpty())
+            return new ResponseEntity<>(validateMsg, HttpStatus.BAD_REQUEST);
+
+        try {
+            Optional<User> optPreviousUser = userRepository.getByEmail(email);
+            User patchedUser = userRepository.patchUser(email, patchFields);
+
+            if (optPreviousUser.isPresent() && patchedUser.getCpf() != null)
+                productTopicService.moveSubscriptions(patchedUser.getCpf(), optPreviousUser.get().getFcmRegId(), patchedUser.getFcmRegId());
+
+            revokeTokensIfAccessChanged(optPreviousUser, patchedUser);
+
+            return new ResponseEntity<User>(patchedUser, HttpStatus.OK);
+        } catch (UserAlreadyExistsException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.PRECONDITION_FAILED);
+        } catch (UserNotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (Exception e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PreAuthorize("hasRole('ADMIN') or hasRole('USER')")
+    @PutMapping(path = "/fcm-token")
+    public ResponseEntity<?> registerFcmRegId(@RequestBody Map<String, String> body, Authentication authentication) {
+
+        String fcmRegId = body.get("fcmRegId");
+
+        if (fcmRegId == null || fcmRegId.trim().isEmpty())
+            return new ResponseEntity<>("Está faltando a propriedade 'fcmRegId' no modelo.", HttpStatus.BAD_REQUEST);
+
+        String cpf = (authentication.getPrincipal() instanceof User) ? ((User) authentication.getPrincipal()).getCpf() : null;
+
+        try {
+            User previousUser = userRepository.registerFcmRegId(cpf, authentication.getName(), fcmRegId);
+
+            if (previousUser.getCpf() != null)
+                productTopicService.moveSubscriptions(previousUser.getCpf(), previousUser.getFcmRegId(), fcmRegId);
+
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (UserNotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+
     @PreAuthorize("hasRole('ADMIN') or hasRole('USER')")
     @GetMapping("/byemail")
     public ResponseEntity<?> getUserByEmail(@RequestParam String email, Authentication authentication) {
@@ -147,7 +229,9 @@ public class UserController {
 
             if (canRunThisOperation(authentication, user.getEmail())) {
                 try {
-                    return new ResponseEntity<User>(userRepository.deleteUser(cpf), HttpStatus.OK);
+                    User deletedUser = userRepository.deleteUser(cpf);
+                    cachedTokenStore.removeTokensByUserName(deletedUser.getEmail());
+                    return new ResponseEntity<User>(deletedUser, HttpStatus.OK);
                 } catch (UserNotFoundException e) {
                     return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
                 }
@@ -160,13 +244,28 @@ public class UserController {
         }
     }
 
+    private void revokeTokensIfAccessChanged(Optional<User> optPreviousUser, User updatedUser) {
+
+        if (!optPreviousUser.isPresent())
+            return;
+
+        User previousUser = optPreviousUser.get();
+
+        if (Objects.equals(previousUser.getEmail(), updatedUser.getEmail())
+                && Objects.equals(previousUser.getCpf(), updatedUser.getCpf())
+                && Objects.equals(previousUser.getRole(), updatedUser.getRole()))
+            return;
+
+        int revokedTokens = cachedTokenStore.removeTokensByUserName(previousUser.getEmail());
+        log.info("Email, cpf ou perfil do usuário " + previousUser.getEmail() + " alterado: " + revokedTokens + " tokens de acesso revogados");
+    }
+
     private boolean canRunThisOperation(Authentication authentication, String email) {
         return (checkRole.hasRoleAdmin(authentication) || getAuthenticationEmail(authentication).equals(email));
     }
 
     private String getAuthenticationEmail(Authentication authentication) {
-        UserDetails user = (UserDetails) authentication.getPrincipal();
-        return user.getUsername();
+        return authentication.getName();
     }
 
     private String validateModel(Operation operation, @Nullable User user, @Nullable String requestParam, @Nullable String paramName) {
@@ -222,6 +321,59 @@ public class UserController {
         return "";
     }
 
+    private String validatePatch(Map<String, Object> fields, boolean admin, Map<String, Object> patchFields) {
+
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            Object value = field.getValue();
+
+            switch (field.getKey()) {
+                case "email":
+                    if (!(value instanceof String) || !validateEmail((String) value))
+                        return "A propriedade 'email' do modelo não é um endereço de e-mail válido.";
+                    break;
+
+                case "password":
+                case "cpf":
+                    if (!(value instanceof String) || ((String) value).trim().isEmpty())
+                        return "A propriedade '" + field.getKey() + "' do modelo não pode ser vazia.";
+                    break;
+
+                case "fcmRegId":
+                    if (value != null && !(value instanceof String))
+                        return "A propriedade 'fcmRegId' do modelo deve ser um texto.";
+                    break;
+
+                case "role":
+                    if (!admin)
+                        return "Usuário não autorizado a alterar a propriedade 'role'.";
+
+                    if (!"ROLE_ADMIN".equals(value) && !"ROLE_USER".equals(value))
+                        return "Propriedade 'role' inválida. Role deve ser 'ROLE_ADMIN' ou 'ROLE_USER'.";
+                    break;
+
+                case "salesProviderUserId":
+                case "crmProviderUserId":
+                    if (value != null && !(value instanceof Number))
+                        return "A propriedade '" + field.getKey() + "' do modelo deve ser um número inteiro.";
+
+                    value = (value != null) ? ((Number) value).longValue() : null;
+                    break;
+
+                case "enabled":
+                    if (!(value instanceof Boolean))
+                        return "A propriedade 'enabled' do modelo deve ser true ou false.";
+                    break;
+
+                default:
+                    return "A propriedade '" + field.getKey() + "' do modelo não pode ser alterada parcialmente.";
+            }
+
+            patchFields.put(field.getKey(), value);
+        }
+
+        return "";
+    }
+
     private boolean validateEmail(String email) {
         String regex = "^[A-Za-z0-9+_.-]+@(.+)$";
         Pattern pattern = Pattern.compile(regex);
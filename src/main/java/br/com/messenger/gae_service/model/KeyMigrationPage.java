@@ -0,0 +1,34 @@
+package br.com.messenger.gae_service.model;
+
+import java.util.List;
+
+public class KeyMigrationPage {
+
+    private int migrated;
+    private List<String> collisions;
+    private String nextCursor;
+
+    public int getMigrated() {
+        return migrated;
+    }
+
+    public void setMigrated(int migrated) {
+        this.migrated = migrated;
+    }
+
+    public List<String> getCollisions() {
+        return collisions;
+    }
+
+    public void setCollisions(List<String> collisions) {
+        this.collisions = collisions;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,109 @@
+package br.com.messenger.gae_service.model;
+
+import br.com.messenger.gae_service.util.NotificationStatus;
+
+import java.io.Serializable;
+import java.util.Date;
+
+public class Notification implements Serializable {
+
+    private Long notificationId;
+    private String jobId;
+    private String cpf;
+    private String fcmRegId;
+    private String topic;
+    private String salesMessage;
+    private NotificationStatus status;
+    private int attempts;
+    private String lastError;
+    private Date createdAt;
+
+    public Notification() {
+    }
+
+    public Notification(String cpf, String fcmRegId, String salesMessage) {
+        this.cpf = cpf;
+        this.fcmRegId = fcmRegId;
+        this.salesMessage = salesMessage;
+    }
+
+    public Long getNotificationId() {
+        return notificationId;
+    }
+
+    public void setNotificationId(Long notificationId) {
+        this.notificationId = notificationId;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getCpf() {
+        return cpf;
+    }
+
+    public void setCpf(String cpf) {
+        this.cpf = cpf;
+    }
+
+    public String getFcmRegId() {
+        return fcmRegId;
+    }
+
+    public void setFcmRegId(String fcmRegId) {
+        this.fcmRegId = fcmRegId;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getSalesMessage() {
+        return salesMessage;
+    }
+
+    public void setSalesMessage(String salesMessage) {
+        this.salesMessage = salesMessage;
+    }
+
+    public NotificationStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(NotificationStatus status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,99 @@
+package br.com.messenger.gae_service.model;
+
+import br.com.messenger.gae_service.util.JobStatus;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.Date;
+
+public class NotificationJob {
+
+    private String jobId;
+    private Date createdAt;
+    private JobStatus status;
+    private int total;
+    private int sent;
+    private int failed;
+    private int skipped;
+    private int digested;
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(JobStatus status) {
+        this.status = status;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getSent() {
+        return sent;
+    }
+
+    public void setSent(int sent) {
+        this.sent = sent;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+
+    public int getDigested() {
+        return digested;
+    }
+
+    public void setDigested(int digested) {
+        this.digested = digested;
+    }
+
+    public void addTotal(int count) {
+        total += count;
+    }
+
+    public void addSkipped(int count) {
+        skipped += count;
+    }
+
+    public void addDigested(int count) {
+        digested += count;
+    }
+
+    @JsonIgnore
+    public boolean isComplete() {
+        return sent + failed + skipped + digested >= total;
+    }
+}
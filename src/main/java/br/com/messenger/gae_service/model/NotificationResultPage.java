@@ -0,0 +1,25 @@
+package br.com.messenger.gae_service.model;
+
+import java.util.List;
+
+public class NotificationResultPage {
+
+    private List<NotificationResult> results;
+    private String nextCursor;
+
+    public List<NotificationResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<NotificationResult> results) {
+        this.results = results;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,34 @@
+package br.com.messenger.gae_service.model;
+
+import java.util.Date;
+
+public class PendingLogin {
+
+    private long windowId;
+    private String email;
+    private Date lastLogin;
+
+    public long getWindowId() {
+        return windowId;
+    }
+
+    public void setWindowId(long windowId) {
+        this.windowId = windowId;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public Date getLastLogin() {
+        return lastLogin;
+    }
+
+    public void setLastLogin(Date lastLogin) {
+        this.lastLogin = lastLogin;
+    }
+}
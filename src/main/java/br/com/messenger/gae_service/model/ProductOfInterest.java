@@ -1,5 +1,7 @@
 package br.com.messenger.gae_service.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class ProductOfInterest {
 
     private Long productOfInterestId;
@@ -7,6 +9,8 @@ public class ProductOfInterest {
     private Long salesProviderUserId;
     private Long salesProviderProductId;
     private double minPriceAlert;
+    private String subscribedTopic;
+    private String subscribedFcmRegId;
 
     public Long getProductOfInterestId() {
         return productOfInterestId;
@@ -47,4 +51,22 @@ public class ProductOfInterest {
     public void setMinPriceAlert(double minPriceAlert) {
         this.minPriceAlert = minPriceAlert;
     }
+
+    @JsonIgnore
+    public String getSubscribedTopic() {
+        return subscribedTopic;
+    }
+
+    public void setSubscribedTopic(String subscribedTopic) {
+        this.subscribedTopic = subscribedTopic;
+    }
+
+    @JsonIgnore
+    public String getSubscribedFcmRegId() {
+        return subscribedFcmRegId;
+    }
+
+    public void setSubscribedFcmRegId(String subscribedFcmRegId) {
+        this.subscribedFcmRegId = subscribedFcmRegId;
+    }
 }
@@ -0,0 +1,64 @@
+package br.com.messenger.gae_service.model;
+
+import br.com.messenger.gae_service.util.BatchItemStatus;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductOfInterestResult {
+
+    private Long salesProviderProductId;
+    private BatchItemStatus status;
+    private String message;
+    private ProductOfInterest productOfInterest;
+    private ProductOfInterest previousProductOfInterest;
+
+    public ProductOfInterestResult() {
+    }
+
+    public ProductOfInterestResult(Long salesProviderProductId, BatchItemStatus status) {
+        this.salesProviderProductId = salesProviderProductId;
+        this.status = status;
+    }
+
+    public Long getSalesProviderProductId() {
+        return salesProviderProductId;
+    }
+
+    public void setSalesProviderProductId(Long salesProviderProductId) {
+        this.salesProviderProductId = salesProviderProductId;
+    }
+
+    public BatchItemStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(BatchItemStatus status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public ProductOfInterest getProductOfInterest() {
+        return productOfInterest;
+    }
+
+    public void setProductOfInterest(ProductOfInterest productOfInterest) {
+        this.productOfInterest = productOfInterest;
+    }
+
+    @JsonIgnore
+    public ProductOfInterest getPreviousProductOfInterest() {
+        return previousProductOfInterest;
+    }
+
+    public void setPreviousProductOfInterest(ProductOfInterest previousProductOfInterest) {
+        this.previousProductOfInterest = previousProductOfInterest;
+    }
+}
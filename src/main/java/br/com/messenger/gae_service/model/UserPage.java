@@ -0,0 +1,25 @@
+package br.com.messenger.gae_service.model;
+
+import java.util.List;
+
+public class UserPage {
+
+    private List<User> users;
+    private String nextCursor;
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public void setUsers(List<User> users) {
+        this.users = users;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
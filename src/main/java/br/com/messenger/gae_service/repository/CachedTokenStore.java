@@ -0,0 +1,388 @@
+package br.com.messenger.gae_service.repository;
+
+import br.com.messenger.gae_service.cache.LocalCache;
+import com.google.appengine.api.datastore.*;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.stereotype.Repository;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.logging.Logger;
+
+@Repository
+public class CachedTokenStore implements TokenStore {
+
+    private static final Logger log = Logger.getLogger(CachedTokenStore.class.getName());
+
+    private static final String NAMESPACE = "oauthTokens";
+
+    private static final String ACCESS_TOKEN_KIND = "oauthAccessTokens";
+    private static final String REFRESH_TOKEN_KIND = "oauthRefreshTokens";
+    private static final String TOKEN_OWNER_KIND = "oauthTokenOwners";
+    private static final String OWNED_TOKEN_KIND = "oauthOwnedTokens";
+
+    private static final String ACCESS_PREFIX = "access:";
+    private static final String AUTHENTICATION_KEY_PREFIX = "authKey:";
+    private static final String REFRESH_PREFIX = "refresh:";
+
+    private static final String REVOKED = "revoked";
+
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    private static final String PROPERTY_TOKEN = "token";
+    private static final String PROPERTY_AUTHENTICATION = "authentication";
+    private static final String PROPERTY_AUTHENTICATION_KEY = "authenticationKey";
+    private static final String PROPERTY_CLIENT_ID = "clientId";
+    private static final String PROPERTY_USER_NAME = "userName";
+    private static final String PROPERTY_REFRESH_TOKEN = "refreshToken";
+    private static final String PROPERTY_EXPIRES_AT = "expiresAt";
+    private static final String PROPERTY_TOKEN_KIND = "tokenKind";
+
+    private final AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
+    private final LocalCache<String, StoredToken> localCache;
+    private final MemcacheService memcacheService;
+    private final int accessTokenValiditySeconds;
+    private DatastoreService datastoreService;
+
+    @Autowired
+    public CachedTokenStore(@Value("${messenger.oauth2.access-token-validity-seconds:3600}") int accessTokenValiditySeconds,
+                            @Value("${messenger.oauth2.token-cache.local-size:10000}") int localSize,
+                            @Value("${messenger.oauth2.token-cache.local-ttl-seconds:5}") int localTtlSeconds) {
+        this.accessTokenValiditySeconds = accessTokenValiditySeconds;
+        this.localCache = new LocalCache<>(localSize, Math.min(localTtlSeconds, accessTokenValiditySeconds) * 1000L);
+        this.memcacheService = MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+        this.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String token) {
+        StoredToken storedToken = getAccessToken(token);
+        return (storedToken != null) ? storedToken.authentication : null;
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication fullAuthentication) {
+
+        String authenticationKey = authenticationKeyGenerator.extractKey(fullAuthentication);
+        OAuth2Authentication authentication = withoutPrincipalDetails(fullAuthentication);
+        StoredToken storedToken = new StoredToken(token, authentication);
+
+        Entity tokenEntity = new Entity(KeyFactory.createKey(ACCESS_TOKEN_KIND, token.getValue()));
+        tokenEntity.setUnindexedProperty(PROPERTY_TOKEN, new Blob(SerializationUtils.serialize(token)));
+        tokenEntity.setUnindexedProperty(PROPERTY_AUTHENTICATION, new Blob(SerializationUtils.serialize(authentication)));
+        tokenEntity.setProperty(PROPERTY_AUTHENTICATION_KEY, authenticationKey);
+        tokenEntity.setProperty(PROPERTY_CLIENT_ID, authentication.getOAuth2Request().getClientId());
+        tokenEntity.setProperty(PROPERTY_USER_NAME, authentication.isClientOnly() ? null : authentication.getName());
+        tokenEntity.setProperty(PROPERTY_REFRESH_TOKEN, (token.getRefreshToken() != null) ? token.getRefreshToken().getValue() : null);
+        tokenEntity.setProperty(PROPERTY_EXPIRES_AT, getExpiresAt(token));
+        datastoreService.put(tokenEntity);
+        storeOwnedToken(authentication, ACCESS_TOKEN_KIND, token.getValue(), getExpiresAt(token));
+
+        localCache.put(ACCESS_PREFIX + token.getValue(), storedToken);
+
+        try {
+            Map<String, Object> entries = new HashMap<>();
+            entries.put(ACCESS_PREFIX + token.getValue(), storedToken);
+            entries.put(AUTHENTICATION_KEY_PREFIX + authenticationKey, token.getValue());
+            memcacheService.putAll(entries, Expiration.onDate(getExpiresAt(token)));
+        } catch (RuntimeException e) {
+            log.warning("Falha ao gravar token de acesso no memcache: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+        StoredToken storedToken = getAccessToken(tokenValue);
+        return (storedToken != null) ? storedToken.token : null;
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+        datastoreService.delete(KeyFactory.createKey(ACCESS_TOKEN_KIND, token.getValue()));
+        uncacheAccessToken(token.getValue());
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication fullAuthentication) {
+
+        OAuth2Authentication authentication = withoutPrincipalDetails(fullAuthentication);
+        Date expiresAt = (refreshToken instanceof ExpiringOAuth2RefreshToken) ? ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration() : null;
+
+        Entity refreshTokenEntity = new Entity(KeyFactory.createKey(REFRESH_TOKEN_KIND, refreshToken.getValue()));
+        refreshTokenEntity.setUnindexedProperty(PROPERTY_TOKEN, new Blob(SerializationUtils.serialize(refreshToken)));
+        refreshTokenEntity.setUnindexedProperty(PROPERTY_AUTHENTICATION, new Blob(SerializationUtils.serialize(authentication)));
+        refreshTokenEntity.setProperty(PROPERTY_USER_NAME, authentication.isClientOnly() ? null : authentication.getName());
+
+        if (expiresAt != null)
+            refreshTokenEntity.setProperty(PROPERTY_EXPIRES_AT, expiresAt);
+
+        datastoreService.put(refreshTokenEntity);
+        storeOwnedToken(authentication, REFRESH_TOKEN_KIND, refreshToken.getValue(), expiresAt);
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+        Entity refreshTokenEntity = getEntity(KeyFactory.createKey(REFRESH_TOKEN_KIND, tokenValue));
+        return (refreshTokenEntity != null) ? SerializationUtils.deserialize(((Blob) refreshTokenEntity.getProperty(PROPERTY_TOKEN)).getBytes()) : null;
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+        Entity refreshTokenEntity = getEntity(KeyFactory.createKey(REFRESH_TOKEN_KIND, token.getValue()));
+        return (refreshTokenEntity != null) ? SerializationUtils.deserialize(((Blob) refreshTokenEntity.getProperty(PROPERTY_AUTHENTICATION)).getBytes()) : null;
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+        datastoreService.delete(KeyFactory.createKey(REFRESH_TOKEN_KIND, token.getValue()));
+    }
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+
+        Query.Filter filter = new Query.FilterPredicate(PROPERTY_REFRESH_TOKEN, Query.FilterOperator.EQUAL, refreshToken.getValue());
+        Query query = new Query(ACCESS_TOKEN_KIND).setFilter(filter).setKeysOnly();
+
+        for (Entity tokenEntity : datastoreService.prepare(query).asIterable()) {
+            datastoreService.delete(tokenEntity.getKey());
+            uncacheAccessToken(tokenEntity.getKey().getName());
+        }
+    }
+
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+
+        String authenticationKey = authenticationKeyGenerator.extractKey(authentication);
+        String tokenValue = null;
+
+        try {
+            tokenValue = (String) memcacheService.get(AUTHENTICATION_KEY_PREFIX + authenticationKey);
+        } catch (RuntimeException e) {
+            log.warning("Falha ao ler token de acesso do memcache: " + e.getMessage());
+        }
+
+        if (tokenValue != null)
+            return readAccessToken(tokenValue);
+
+        Query.Filter filter = new Query.FilterPredicate(PROPERTY_AUTHENTICATION_KEY, Query.FilterOperator.EQUAL, authenticationKey);
+        List<Entity> tokenEntities = datastoreService.prepare(new Query(ACCESS_TOKEN_KIND).setFilter(filter)).asList(FetchOptions.Builder.withLimit(1));
+
+        return !tokenEntities.isEmpty() ? cacheAccessToken(tokenEntities.get(0)).token : null;
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+        Query.Filter filter = Query.CompositeFilterOperator.and(
+                new Query.FilterPredicate(PROPERTY_CLIENT_ID, Query.FilterOperator.EQUAL, clientId),
+                new Query.FilterPredicate(PROPERTY_USER_NAME, Query.FilterOperator.EQUAL, userName));
+        return findTokens(filter);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+        return findTokens(new Query.FilterPredicate(PROPERTY_CLIENT_ID, Query.FilterOperator.EQUAL, clientId));
+    }
+
+    public int removeTokensByUserName(String userName) {
+
+        Query.Filter filter = new Query.FilterPredicate(PROPERTY_USER_NAME, Query.FilterOperator.EQUAL, userName);
+        Set<Key> accessTokenKeys = new HashSet<>();
+        Set<Key> refreshTokenKeys = new HashSet<>();
+        List<Key> ownedTokenKeys = new ArrayList<>();
+
+        for (Entity ownedTokenEntity : datastoreService.prepare(new Query(OWNED_TOKEN_KIND).setAncestor(createTokenOwnerKey(userName))).asIterable()) {
+            ownedTokenKeys.add(ownedTokenEntity.getKey());
+
+            if (ACCESS_TOKEN_KIND.equals(ownedTokenEntity.getProperty(PROPERTY_TOKEN_KIND)))
+                accessTokenKeys.add(KeyFactory.createKey(ACCESS_TOKEN_KIND, ownedTokenEntity.getKey().getName()));
+            else
+                refreshTokenKeys.add(KeyFactory.createKey(REFRESH_TOKEN_KIND, ownedTokenEntity.getKey().getName()));
+        }
+
+        for (Entity tokenEntity : datastoreService.prepare(new Query(ACCESS_TOKEN_KIND).setFilter(filter)).asIterable()) {
+            accessTokenKeys.add(tokenEntity.getKey());
+
+            if (tokenEntity.getProperty(PROPERTY_REFRESH_TOKEN) != null)
+                refreshTokenKeys.add(KeyFactory.createKey(REFRESH_TOKEN_KIND, (String) tokenEntity.getProperty(PROPERTY_REFRESH_TOKEN)));
+        }
+
+        for (Entity refreshTokenEntity : datastoreService.prepare(new Query(REFRESH_TOKEN_KIND).setFilter(filter).setKeysOnly()).asIterable())
+            refreshTokenKeys.add(refreshTokenEntity.getKey());
+
+        datastoreService.delete(refreshTokenKeys);
+        datastoreService.delete(accessTokenKeys);
+        datastoreService.delete(ownedTokenKeys);
+
+        for (Key accessTokenKey : accessTokenKeys)
+            uncacheAccessToken(accessTokenKey.getName());
+
+        return accessTokenKeys.size();
+    }
+
+    public void purgeExpiredTokens() {
+
+        Date now = Calendar.getInstance().getTime();
+        int purgedAccessTokens = purgeExpiredTokens(ACCESS_TOKEN_KIND, now);
+        int purgedRefreshTokens = purgeExpiredTokens(REFRESH_TOKEN_KIND, now);
+        purgeExpiredTokens(OWNED_TOKEN_KIND, now);
+
+        if (purgedAccessTokens + purgedRefreshTokens > 0)
+            log.info(purgedAccessTokens + " tokens de acesso e " + purgedRefreshTokens + " tokens de atualização expirados removidos");
+    }
+
+    private int purgeExpiredTokens(String kind, Date now) {
+
+        Query.Filter filter = new Query.FilterPredicate(PROPERTY_EXPIRES_AT, Query.FilterOperator.LESS_THAN, now);
+        Query query = new Query(kind).setFilter(filter).setKeysOnly();
+        List<Key> expiredKeys = new ArrayList<>();
+        int purged = 0;
+
+        for (Entity tokenEntity : datastoreService.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(PURGE_BATCH_SIZE))) {
+            expiredKeys.add(tokenEntity.getKey());
+
+            if (expiredKeys.size() >= PURGE_BATCH_SIZE) {
+                datastoreService.delete(expiredKeys);
+                purged += expiredKeys.size();
+                expiredKeys.clear();
+            }
+        }
+
+        datastoreService.delete(expiredKeys);
+        return purged + expiredKeys.size();
+    }
+
+    private void storeOwnedToken(OAuth2Authentication authentication, String kind, String tokenValue, Date expiresAt) {
+
+        if (authentication.isClientOnly())
+            return;
+
+        Entity ownedTokenEntity = new Entity(OWNED_TOKEN_KIND, tokenValue, createTokenOwnerKey(authentication.getName()));
+        ownedTokenEntity.setUnindexedProperty(PROPERTY_TOKEN_KIND, kind);
+
+        if (expiresAt != null)
+            ownedTokenEntity.setProperty(PROPERTY_EXPIRES_AT, expiresAt);
+
+        datastoreService.put(ownedTokenEntity);
+    }
+
+    private OAuth2Authentication withoutPrincipalDetails(OAuth2Authentication authentication) {
+
+        if (authentication.isClientOnly())
+            return authentication;
+
+        UsernamePasswordAuthenticationToken userAuthentication = new UsernamePasswordAuthenticationToken(authentication.getName(), null, authentication.getUserAuthentication().getAuthorities());
+        return new OAuth2Authentication(authentication.getOAuth2Request(), userAuthentication);
+    }
+
+    private Key createTokenOwnerKey(String userName) {
+        return KeyFactory.createKey(TOKEN_OWNER_KIND, userName);
+    }
+
+    private StoredToken getAccessToken(String tokenValue) {
+
+        StoredToken storedToken = localCache.get(ACCESS_PREFIX + tokenValue);
+
+        if (storedToken != null)
+            return storedToken;
+
+        try {
+            Object cachedToken = memcacheService.get(ACCESS_PREFIX + tokenValue);
+
+            if (REVOKED.equals(cachedToken))
+                return null;
+
+            storedToken = (StoredToken) cachedToken;
+        } catch (RuntimeException e) {
+            log.warning("Falha ao ler token de acesso do memcache: " + e.getMessage());
+        }
+
+        if (storedToken != null) {
+            localCache.put(ACCESS_PREFIX + tokenValue, storedToken);
+            return storedToken;
+        }
+
+        Entity tokenEntity = getEntity(KeyFactory.createKey(ACCESS_TOKEN_KIND, tokenValue));
+        return (tokenEntity != null) ? cacheAccessToken(tokenEntity) : null;
+    }
+
+    private StoredToken cacheAccessToken(Entity tokenEntity) {
+
+        OAuth2AccessToken token = SerializationUtils.deserialize(((Blob) tokenEntity.getProperty(PROPERTY_TOKEN)).getBytes());
+        OAuth2Authentication authentication = SerializationUtils.deserialize(((Blob) tokenEntity.getProperty(PROPERTY_AUTHENTICATION)).getBytes());
+        StoredToken storedToken = new StoredToken(token, authentication);
+
+        try {
+            if (memcacheService.put(ACCESS_PREFIX + token.getValue(), storedToken, Expiration.onDate(getExpiresAt(token)), MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT))
+                localCache.put(ACCESS_PREFIX + token.getValue(), storedToken);
+        } catch (RuntimeException e) {
+            log.warning("Falha ao gravar token de acesso no memcache: " + e.getMessage());
+        }
+
+        return storedToken;
+    }
+
+    private void uncacheAccessToken(String tokenValue) {
+        localCache.remove(ACCESS_PREFIX + tokenValue);
+
+        try {
+            memcacheService.put(ACCESS_PREFIX + tokenValue, REVOKED, Expiration.byDeltaSeconds(accessTokenValiditySeconds));
+        } catch (RuntimeException e) {
+            log.warning("Falha ao gravar revogação do token de acesso no memcache: " + e.getMessage());
+        }
+    }
+
+    private Collection<OAuth2AccessToken> findTokens(Query.Filter filter) {
+
+        List<OAuth2AccessToken> tokens = new ArrayList<>();
+
+        for (Entity tokenEntity : datastoreService.prepare(new Query(ACCESS_TOKEN_KIND).setFilter(filter)).asIterable())
+            tokens.add(SerializationUtils.deserialize(((Blob) tokenEntity.getProperty(PROPERTY_TOKEN)).getBytes()));
+
+        return tokens;
+    }
+
+    private Date getExpiresAt(OAuth2AccessToken token) {
+
+        if (token.getExpiration() != null)
+            return token.getExpiration();
+
+        return new Date(System.currentTimeMillis() + accessTokenValiditySeconds * 1000L);
+    }
+
+    private Entity getEntity(Key key) {
+        try {
+            return datastoreService.get(key);
+        } catch (EntityNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static class StoredToken implements Serializable {
+
+        private final OAuth2AccessToken token;
+        private final OAuth2Authentication authentication;
+
+        private StoredToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+            this.token = token;
+            this.authentication = authentication;
+        }
+    }
+}
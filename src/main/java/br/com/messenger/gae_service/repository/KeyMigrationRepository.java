@@ -0,0 +1,264 @@
+package br.com.messenger.gae_service.repository;
+
+import br.com.messenger.gae_service.model.KeyMigrationPage;
+import com.google.appengine.api.datastore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+@Repository
+public class KeyMigrationRepository {
+
+    private static final Logger log = Logger.getLogger(KeyMigrationRepository.class.getName());
+
+    private DatastoreService datastoreService;
+
+    @Autowired
+    public KeyMigrationRepository() {
+        this.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    private static final String USER_KIND = "users";
+    private static final String USER_EMAIL_KIND = "userEmails";
+    private static final String PRODUCT_OF_INTEREST_KIND = "productsOfInterest";
+
+    private static final String PROPERTY_USER_ID = "userId";
+    private static final String PROPERTY_USER_KEY = "userKey";
+    private static final String PROPERTY_EMAIL = "email";
+    private static final String PROPERTY_CPF = "cpf";
+    private static final String PROPERTY_PRODUCT_OF_INTEREST_ID = "productOfInterestId";
+    private static final String PROPERTY_SALES_PROVIDER_PRODUCT_ID = "salesProviderProductId";
+
+    private static final Map<String, String> LEGACY_PARENT_KEYS = new HashMap<>();
+
+    static {
+        LEGACY_PARENT_KEYS.put(USER_KIND, "userKey");
+        LEGACY_PARENT_KEYS.put(PRODUCT_OF_INTEREST_KIND, "productOfInterestKey");
+    }
+
+    public boolean isMigratableKind(String kind) {
+        return LEGACY_PARENT_KEYS.containsKey(kind);
+    }
+
+    public KeyMigrationPage migrateToRootKeys(String kind, int batchSize, String cursor) {
+
+        Key legacyParentKey = KeyFactory.createKey(kind, LEGACY_PARENT_KEYS.get(kind));
+        Query query = new Query(kind).setAncestor(legacyParentKey);
+        QueryResultList<Entity> legacyEntities = datastoreService.prepare(query).asQueryResultList(getFetchOptions(batchSize, cursor));
+
+        if (!legacyEntities.isEmpty())
+            migrateBatch(kind, legacyEntities);
+
+        KeyMigrationPage keyMigrationPage = new KeyMigrationPage();
+        keyMigrationPage.setMigrated(legacyEntities.size());
+        keyMigrationPage.setCollisions(new ArrayList<>());
+
+        if (legacyEntities.size() == batchSize)
+            keyMigrationPage.setNextCursor(legacyEntities.getCursor().toWebSafeString());
+
+        return keyMigrationPage;
+    }
+
+    private void migrateBatch(String kind, List<Entity> legacyEntities) {
+
+        List<Key> rootKeys = new ArrayList<>();
+        List<Key> legacyKeys = new ArrayList<>();
+
+        for (Entity legacyEntity : legacyEntities) {
+            rootKeys.add(KeyFactory.createKey(kind, legacyEntity.getKey().getId()));
+            legacyKeys.add(legacyEntity.getKey());
+        }
+
+        Map<Key, Entity> takenRootKeys = datastoreService.get(rootKeys);
+        List<Entity> rootEntities = new ArrayList<>();
+
+        for (int i = 0; i < legacyEntities.size(); i++) {
+            Key rootKey = rootKeys.get(i);
+            Entity takenRootEntity = takenRootKeys.get(rootKey);
+
+            if (takenRootEntity != null && !takenRootEntity.getProperties().equals(legacyEntities.get(i).getProperties()))
+                rootKey = datastoreService.allocateIds(kind, 1).getStart();
+
+            Entity rootEntity = new Entity(rootKey);
+            rootEntity.setPropertiesFrom(legacyEntities.get(i));
+            rootEntities.add(rootEntity);
+        }
+
+        datastoreService.put(rootEntities);
+        datastoreService.delete(legacyKeys);
+    }
+
+    public KeyMigrationPage migrateToNamedKeys(String kind, int batchSize, String cursor) {
+
+        Query query = new Query(kind).addSort(Entity.KEY_RESERVED_PROPERTY);
+        QueryResultList<Entity> entities = datastoreService.prepare(query).asQueryResultList(getFetchOptions(batchSize, cursor));
+
+        List<Entity> legacyEntities = new ArrayList<>();
+        boolean reachedNamedKeys = false;
+
+        for (Entity entity : entities) {
+            if (entity.getKey().getName() != null || entity.getKey().getParent() != null) {
+                reachedNamedKeys = true;
+                break;
+            }
+
+            legacyEntities.add(entity);
+        }
+
+        List<String> collisions = new ArrayList<>();
+        KeyMigrationPage keyMigrationPage = new KeyMigrationPage();
+        keyMigrationPage.setCollisions(collisions);
+
+        if (USER_KIND.equals(kind))
+            keyMigrationPage.setMigrated(migrateUsersToNamedKeys(legacyEntities, collisions));
+        else
+            keyMigrationPage.setMigrated(migrateProductsOfInterestToNamedKeys(legacyEntities, collisions));
+
+        if (!reachedNamedKeys && entities.size() == batchSize)
+            keyMigrationPage.setNextCursor(entities.getCursor().toWebSafeString());
+
+        return keyMigrationPage;
+    }
+
+    private FetchOptions getFetchOptions(int batchSize, String cursor) {
+
+        FetchOptions fetchOptions = FetchOptions.Builder.withLimit(batchSize);
+
+        if (cursor != null)
+            fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+
+        return fetchOptions;
+    }
+
+    private int migrateUsersToNamedKeys(List<Entity> userEntities, List<String> collisions) {
+
+        Map<Key, Entity> namedEntities = new LinkedHashMap<>();
+        Map<Key, Key> legacyKeysByNamedKey = new HashMap<>();
+        Map<Key, String> emailsByLegacyKey = new LinkedHashMap<>();
+        Map<Key, Key> userKeysByLegacyKey = new HashMap<>();
+        List<Entity> unnamedEntities = new ArrayList<>();
+
+        for (Entity userEntity : userEntities) {
+
+            if (userEntity.getKey().getName() != null || userEntity.getKey().getParent() != null)
+                continue;
+
+            String cpf = (String) userEntity.getProperty(PROPERTY_CPF);
+            Key legacyKey = userEntity.getKey();
+            Key userKey = (cpf != null) ? KeyFactory.createKey(USER_KIND, cpf) : legacyKey;
+
+            Entity namedEntity = new Entity(userKey);
+            namedEntity.setPropertiesFrom(userEntity);
+
+            if (namedEntity.getProperty(PROPERTY_USER_ID) == null)
+                namedEntity.setProperty(PROPERTY_USER_ID, legacyKey.getId());
+
+            emailsByLegacyKey.put(legacyKey, (String) userEntity.getProperty(PROPERTY_EMAIL));
+            userKeysByLegacyKey.put(legacyKey, legacyKey);
+
+            if (cpf == null) {
+                unnamedEntities.add(namedEntity);
+            } else if (namedEntities.containsKey(userKey)) {
+                reportCollision(collisions, legacyKey, userKey);
+            } else {
+                namedEntities.put(userKey, namedEntity);
+                legacyKeysByNamedKey.put(userKey, legacyKey);
+            }
+        }
+
+        datastoreService.put(unnamedEntities);
+        Map<Key, Entity> existingEntities = putIfAbsent(namedEntities);
+        List<Key> legacyKeys = new ArrayList<>();
+
+        for (Map.Entry<Key, Key> legacyKeyByNamedKey : legacyKeysByNamedKey.entrySet()) {
+            Key userKey = legacyKeyByNamedKey.getKey();
+            Key legacyKey = legacyKeyByNamedKey.getValue();
+            Entity existingEntity = existingEntities.get(userKey);
+
+            if (existingEntity == null || Objects.equals(existingEntity.getProperty(PROPERTY_USER_ID), namedEntities.get(userKey).getProperty(PROPERTY_USER_ID))) {
+                userKeysByLegacyKey.put(legacyKey, userKey);
+                legacyKeys.add(legacyKey);
+            } else {
+                reportCollision(collisions, legacyKey, userKey);
+            }
+        }
+
+        Map<Key, Entity> userEmailEntities = new LinkedHashMap<>();
+
+        for (Map.Entry<Key, String> emailByLegacyKey : emailsByLegacyKey.entrySet()) {
+            Entity userEmailEntity = new Entity(KeyFactory.createKey(USER_EMAIL_KIND, emailByLegacyKey.getValue()));
+            userEmailEntity.setUnindexedProperty(PROPERTY_USER_KEY, userKeysByLegacyKey.get(emailByLegacyKey.getKey()));
+            userEmailEntities.putIfAbsent(userEmailEntity.getKey(), userEmailEntity);
+        }
+
+        putIfAbsent(userEmailEntities);
+        datastoreService.delete(legacyKeys);
+
+        return legacyKeys.size() + unnamedEntities.size();
+    }
+
+    private int migrateProductsOfInterestToNamedKeys(List<Entity> productOfInterestEntities, List<String> collisions) {
+
+        Map<Key, Entity> namedEntities = new LinkedHashMap<>();
+        Map<Key, Key> legacyKeysByNamedKey = new HashMap<>();
+
+        for (Entity productOfInterestEntity : productOfInterestEntities) {
+
+            if (productOfInterestEntity.getKey().getName() != null || productOfInterestEntity.getKey().getParent() != null)
+                continue;
+
+            Key legacyKey = productOfInterestEntity.getKey();
+            Key productOfInterestKey = KeyFactory.createKey(PRODUCT_OF_INTEREST_KIND,
+                    productOfInterestEntity.getProperty(PROPERTY_CPF) + ":" + productOfInterestEntity.getProperty(PROPERTY_SALES_PROVIDER_PRODUCT_ID));
+
+            if (namedEntities.containsKey(productOfInterestKey)) {
+                reportCollision(collisions, legacyKey, productOfInterestKey);
+                continue;
+            }
+
+            Entity namedEntity = new Entity(productOfInterestKey);
+            namedEntity.setPropertiesFrom(productOfInterestEntity);
+            namedEntity.setProperty(PROPERTY_PRODUCT_OF_INTEREST_ID, legacyKey.getId());
+
+            namedEntities.put(productOfInterestKey, namedEntity);
+            legacyKeysByNamedKey.put(productOfInterestKey, legacyKey);
+        }
+
+        Map<Key, Entity> existingEntities = putIfAbsent(namedEntities);
+        List<Key> legacyKeys = new ArrayList<>();
+
+        for (Map.Entry<Key, Key> legacyKeyByNamedKey : legacyKeysByNamedKey.entrySet()) {
+            Entity existingEntity = existingEntities.get(legacyKeyByNamedKey.getKey());
+
+            if (existingEntity == null || Objects.equals(existingEntity.getProperty(PROPERTY_PRODUCT_OF_INTEREST_ID), legacyKeyByNamedKey.getValue().getId()))
+                legacyKeys.add(legacyKeyByNamedKey.getValue());
+            else
+                reportCollision(collisions, legacyKeyByNamedKey.getValue(), legacyKeyByNamedKey.getKey());
+        }
+
+        datastoreService.delete(legacyKeys);
+
+        return legacyKeys.size();
+    }
+
+    private Map<Key, Entity> putIfAbsent(Map<Key, Entity> entities) {
+
+        Map<Key, Entity> existingEntities = datastoreService.get(entities.keySet());
+        List<Entity> entitiesToPut = new ArrayList<>();
+
+        for (Entity entity : entities.values()) {
+            if (!existingEntities.containsKey(entity.getKey()))
+                entitiesToPut.add(entity);
+        }
+
+        datastoreService.put(entitiesToPut);
+        return existingEntities;
+    }
+
+    private void reportCollision(List<String> collisions, Key legacyKey, Key namedKey) {
+        log.warning("Conflito na migração de chaves: entidade " + legacyKey + " mantida, chave " + namedKey + " já pertence a outra entidade");
+        collisions.add(KeyFactory.keyToString(legacyKey));
+    }
+}
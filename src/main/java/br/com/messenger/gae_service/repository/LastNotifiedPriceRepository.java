@@ -0,0 +1,103 @@
+package br.com.messenger.gae_service.repository;
+
+import br.com.messenger.gae_service.cache.LastNotifiedPriceCache;
+import com.google.appengine.api.datastore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+@Repository
+public class LastNotifiedPriceRepository {
+
+    private static final Logger log = Logger.getLogger(LastNotifiedPriceRepository.class.getName());
+
+    private LastNotifiedPriceCache lastNotifiedPriceCache;
+    private long ttlMillis;
+    private DatastoreService datastoreService;
+
+    @Autowired
+    public LastNotifiedPriceRepository(LastNotifiedPriceCache lastNotifiedPriceCache, @Value("${messenger.price-update.notified-price-ttl-seconds:86400}") int ttlSeconds) {
+        this.lastNotifiedPriceCache = lastNotifiedPriceCache;
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    private static final String LAST_NOTIFIED_PRICE_KIND = "lastNotifiedPrices";
+
+    private static final int GET_BATCH_SIZE = 1000;
+    private static final int PUT_BATCH_SIZE = 500;
+
+    private static final String PROPERTY_PRICE = "price";
+    private static final String PROPERTY_EXPIRES_AT = "expiresAt";
+
+    public Map<String, Double> getAll(Collection<String> keys) {
+
+        Map<String, Double> lastNotifiedPrices = lastNotifiedPriceCache.getAll(keys);
+        List<Key> missingKeys = new ArrayList<>();
+
+        for (String key : keys) {
+            if (!lastNotifiedPrices.containsKey(key))
+                missingKeys.add(KeyFactory.createKey(LAST_NOTIFIED_PRICE_KIND, key));
+        }
+
+        Map<String, Double> storedPrices = new HashMap<>();
+        Date now = Calendar.getInstance().getTime();
+
+        for (int start = 0; start < missingKeys.size(); start += GET_BATCH_SIZE) {
+            for (Entity lastNotifiedPriceEntity : datastoreService.get(missingKeys.subList(start, Math.min(start + GET_BATCH_SIZE, missingKeys.size()))).values()) {
+                Date expiresAt = (Date) lastNotifiedPriceEntity.getProperty(PROPERTY_EXPIRES_AT);
+
+                if (expiresAt == null || expiresAt.after(now))
+                    storedPrices.put(lastNotifiedPriceEntity.getKey().getName(), (Double) lastNotifiedPriceEntity.getProperty(PROPERTY_PRICE));
+            }
+        }
+
+        if (!storedPrices.isEmpty())
+            lastNotifiedPriceCache.putAll(storedPrices);
+
+        lastNotifiedPrices.putAll(storedPrices);
+        return lastNotifiedPrices;
+    }
+
+    public void putAll(Map<String, Double> lastNotifiedPrices) {
+
+        Date expiresAt = new Date(Calendar.getInstance().getTimeInMillis() + ttlMillis);
+        List<Entity> lastNotifiedPriceEntities = new ArrayList<>();
+
+        for (Map.Entry<String, Double> lastNotifiedPrice : lastNotifiedPrices.entrySet()) {
+            Entity lastNotifiedPriceEntity = new Entity(LAST_NOTIFIED_PRICE_KIND, lastNotifiedPrice.getKey());
+            lastNotifiedPriceEntity.setUnindexedProperty(PROPERTY_PRICE, lastNotifiedPrice.getValue());
+            lastNotifiedPriceEntity.setProperty(PROPERTY_EXPIRES_AT, expiresAt);
+            lastNotifiedPriceEntities.add(lastNotifiedPriceEntity);
+        }
+
+        for (int start = 0; start < lastNotifiedPriceEntities.size(); start += PUT_BATCH_SIZE)
+            datastoreService.put(lastNotifiedPriceEntities.subList(start, Math.min(start + PUT_BATCH_SIZE, lastNotifiedPriceEntities.size())));
+
+        lastNotifiedPriceCache.putAll(lastNotifiedPrices);
+    }
+
+    public void purgeExpired() {
+
+        Query.Filter filter = new Query.FilterPredicate(PROPERTY_EXPIRES_AT, Query.FilterOperator.LESS_THAN, Calendar.getInstance().getTime());
+        Query query = new Query(LAST_NOTIFIED_PRICE_KIND).setFilter(filter).setKeysOnly();
+        List<Key> expiredKeys = new ArrayList<>();
+        int purged = 0;
+
+        for (Entity lastNotifiedPriceEntity : datastoreService.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(PUT_BATCH_SIZE))) {
+            expiredKeys.add(lastNotifiedPriceEntity.getKey());
+
+            if (expiredKeys.size() >= PUT_BATCH_SIZE) {
+                datastoreService.delete(expiredKeys);
+                purged += expiredKeys.size();
+                expiredKeys.clear();
+            }
+        }
+
+        datastoreService.delete(expiredKeys);
+        log.info("Últimos preços notificados expirados removidos: " + (purged + expiredKeys.size()));
+    }
+}
@@ -0,0 +1,82 @@
+package br.com.messenger.gae_service.repository;
+
+import br.com.messenger.gae_service.model.PendingLogin;
+import com.google.appengine.api.datastore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+@Repository
+public class LoginWindowRepository {
+
+    private DatastoreService datastoreService;
+
+    @Autowired
+    public LoginWindowRepository() {
+        this.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    private static final String PENDING_LOGIN_KIND = "pendingLogins";
+
+    private static final String PROPERTY_WINDOW_ID = "windowId";
+    private static final String PROPERTY_EMAIL = "email";
+    private static final String PROPERTY_LAST_LOGIN = "lastLogin";
+
+    public void saveLogin(long windowId, String email, Date lastLogin) {
+        Entity pendingLoginEntity = new Entity(createPendingLoginKey(windowId, email));
+        pendingLoginEntity.setProperty(PROPERTY_WINDOW_ID, windowId);
+        pendingLoginEntity.setUnindexedProperty(PROPERTY_EMAIL, email);
+        pendingLoginEntity.setUnindexedProperty(PROPERTY_LAST_LOGIN, lastLogin);
+        datastoreService.put(pendingLoginEntity);
+    }
+
+    public void forEachPendingLoginBatch(long windowId, int batchSize, Consumer<List<PendingLogin>> consumer) {
+
+        Query.Filter filter = new Query.FilterPredicate(PROPERTY_WINDOW_ID, Query.FilterOperator.LESS_THAN_OR_EQUAL, windowId);
+        Query query = new Query(PENDING_LOGIN_KIND).setFilter(filter);
+        FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(batchSize).prefetchSize(batchSize);
+        QueryResultIterator<Entity> pendingLoginEntities = datastoreService.prepare(query).asQueryResultIterator(fetchOptions);
+
+        List<PendingLogin> pendingLogins = new ArrayList<>();
+
+        while (pendingLoginEntities.hasNext()) {
+            pendingLogins.add(entityToPendingLogin(pendingLoginEntities.next()));
+
+            if (pendingLogins.size() >= batchSize) {
+                consumer.accept(pendingLogins);
+                pendingLogins = new ArrayList<>();
+            }
+        }
+
+        if (!pendingLogins.isEmpty())
+            consumer.accept(pendingLogins);
+    }
+
+    public void deletePendingLogins(Collection<PendingLogin> pendingLogins) {
+
+        List<Key> pendingLoginKeys = new ArrayList<>();
+
+        for (PendingLogin pendingLogin : pendingLogins)
+            pendingLoginKeys.add(createPendingLoginKey(pendingLogin.getWindowId(), pendingLogin.getEmail()));
+
+        datastoreService.delete(pendingLoginKeys);
+    }
+
+    private Key createPendingLoginKey(long windowId, String email) {
+        return KeyFactory.createKey(PENDING_LOGIN_KIND, windowId + ":" + email);
+    }
+
+    private PendingLogin entityToPendingLogin(Entity pendingLoginEntity) {
+        PendingLogin pendingLogin = new PendingLogin();
+        pendingLogin.setWindowId((Long) pendingLoginEntity.getProperty(PROPERTY_WINDOW_ID));
+        pendingLogin.setEmail((String) pendingLoginEntity.getProperty(PROPERTY_EMAIL));
+        pendingLogin.setLastLogin((Date) pendingLoginEntity.getProperty(PROPERTY_LAST_LOGIN));
+
+        return pendingLogin;
+    }
+}
@@ -0,0 +1,135 @@
+package br.com.messenger.gae_service.repository;
+
+import br.com.messenger.gae_service.model.NotificationJob;
+import br.com.messenger.gae_service.util.JobStatus;
+import com.google.appengine.api.datastore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+@Repository
+public class NotificationJobRepository {
+
+    private static final Logger log = Logger.getLogger(NotificationJobRepository.class.getName());
+
+    private DatastoreService datastoreService;
+
+    @Autowired
+    public NotificationJobRepository() {
+        this.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    private static final String NOTIFICATION_JOB_KIND = "notificationJobs";
+
+    private static final int TRANSACTION_RETRIES = 5;
+
+    private static final String PROPERTY_CREATED_AT = "createdAt";
+    private static final String PROPERTY_STATUS = "status";
+    private static final String PROPERTY_TOTAL = "total";
+    private static final String PROPERTY_SENT = "sent";
+    private static final String PROPERTY_FAILED = "failed";
+    private static final String PROPERTY_SKIPPED = "skipped";
+    private static final String PROPERTY_DIGESTED = "digested";
+
+    public void saveJob(NotificationJob job) {
+        Entity jobEntity = new Entity(createJobKey(job.getJobId()));
+        jobToEntity(job, jobEntity);
+        datastoreService.put(jobEntity);
+    }
+
+    public NotificationJob saveJobIfAbsent(NotificationJob job) {
+
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastoreService.beginTransaction();
+
+            try {
+                return entityToJob(datastoreService.get(transaction, createJobKey(job.getJobId())));
+            } catch (EntityNotFoundException e) {
+                Entity jobEntity = new Entity(createJobKey(job.getJobId()));
+                jobToEntity(job, jobEntity);
+                datastoreService.put(transaction, jobEntity);
+                transaction.commit();
+                return job;
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= TRANSACTION_RETRIES)
+                    throw e;
+            } finally {
+                if (transaction.isActive())
+                    transaction.rollback();
+            }
+        }
+    }
+
+    public Optional<NotificationJob> getJob(String jobId) {
+        try {
+            return Optional.of(entityToJob(datastoreService.get(createJobKey(jobId))));
+        } catch (EntityNotFoundException e) {
+            return Optional.empty();
+        }
+    }
+
+    public void addResults(String jobId, int sent, int failed) {
+
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastoreService.beginTransaction();
+
+            try {
+                NotificationJob job = entityToJob(datastoreService.get(transaction, createJobKey(jobId)));
+                job.setSent(job.getSent() + sent);
+                job.setFailed(job.getFailed() + failed);
+
+                if (job.isComplete())
+                    job.setStatus(JobStatus.DONE);
+
+                Entity jobEntity = new Entity(createJobKey(jobId));
+                jobToEntity(job, jobEntity);
+                datastoreService.put(transaction, jobEntity);
+                transaction.commit();
+                return;
+            } catch (EntityNotFoundException e) {
+                log.severe("Job de notificação: " + jobId + " - não encontrado");
+                return;
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= TRANSACTION_RETRIES)
+                    throw e;
+            } finally {
+                if (transaction.isActive())
+                    transaction.rollback();
+            }
+        }
+    }
+
+    private Key createJobKey(String jobId) {
+        return KeyFactory.createKey(NOTIFICATION_JOB_KIND, jobId);
+    }
+
+    private void jobToEntity(NotificationJob job, Entity jobEntity) {
+        jobEntity.setProperty(PROPERTY_CREATED_AT, job.getCreatedAt());
+        jobEntity.setUnindexedProperty(PROPERTY_STATUS, job.getStatus().name());
+        jobEntity.setUnindexedProperty(PROPERTY_TOTAL, job.getTotal());
+        jobEntity.setUnindexedProperty(PROPERTY_SENT, job.getSent());
+        jobEntity.setUnindexedProperty(PROPERTY_FAILED, job.getFailed());
+        jobEntity.setUnindexedProperty(PROPERTY_SKIPPED, job.getSkipped());
+        jobEntity.setUnindexedProperty(PROPERTY_DIGESTED, job.getDigested());
+    }
+
+    private NotificationJob entityToJob(Entity jobEntity) {
+        NotificationJob job = new NotificationJob();
+        job.setJobId(jobEntity.getKey().getName());
+        job.setCreatedAt((Date) jobEntity.getProperty(PROPERTY_CREATED_AT));
+        job.setStatus(JobStatus.valueOf((String) jobEntity.getProperty(PROPERTY_STATUS)));
+        job.setTotal(((Long) jobEntity.getProperty(PROPERTY_TOTAL)).intValue());
+        job.setSent(((Long) jobEntity.getProperty(PROPERTY_SENT)).intValue());
+        job.setFailed(((Long) jobEntity.getProperty(PROPERTY_FAILED)).intValue());
+        job.setSkipped(((Long) jobEntity.getProperty(PROPERTY_SKIPPED)).intValue());
+
+        if (jobEntity.hasProperty(PROPERTY_DIGESTED))
+            job.setDigested(((Long) jobEntity.getProperty(PROPERTY_DIGESTED)).intValue());
+
+        return job;
+    }
+}
@@ -0,0 +1,188 @@
+package br.com.messenger.gae_service.repository;
+
+import br.com.messenger.gae_service.model.Notification;
+import br.com.messenger.gae_service.model.NotificationResult;
+import br.com.messenger.gae_service.model.NotificationResultPage;
+import br.com.messenger.gae_service.util.NotificationStatus;
+import com.google.appengine.api.datastore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.logging.Logger;
+
+@Repository
+public class NotificationOutboxRepository {
+
+    private static final Logger log = Logger.getLogger(NotificationOutboxRepository.class.getName());
+
+    private DatastoreService datastoreService;
+
+    @Autowired
+    public NotificationOutboxRepository() {
+        this.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    private static final String NOTIFICATION_OUTBOX_KIND = "notificationOutbox";
+
+    private static final int PUT_BATCH_SIZE = 500;
+
+    private static final String PROPERTY_JOB_ID = "jobId";
+    private static final String PROPERTY_CPF = "cpf";
+    private static final String PROPERTY_FCM_REG_ID = "fcmRegId";
+    private static final String PROPERTY_TOPIC = "topic";
+    private static final String PROPERTY_SALES_MESSAGE = "salesMessage";
+    private static final String PROPERTY_STATUS = "status";
+    private static final String PROPERTY_ATTEMPTS = "attempts";
+    private static final String PROPERTY_LAST_ERROR = "lastError";
+    private static final String PROPERTY_CREATED_AT = "createdAt";
+
+    public List<Long> saveNotifications(String jobId, List<Notification> notifications) {
+        return saveNotifications(jobId, notifications, NotificationStatus.PENDING);
+    }
+
+    public List<Long> saveNotifications(String jobId, List<Notification> notifications, NotificationStatus status) {
+
+        List<Long> notificationIds = new ArrayList<>();
+
+        if (notifications.isEmpty())
+            return notificationIds;
+
+        Iterator<Key> allocatedKeys = datastoreService.allocateIds(NOTIFICATION_OUTBOX_KIND, notifications.size()).iterator();
+        Date createdAt = Calendar.getInstance().getTime();
+        List<Entity> notificationEntities = new ArrayList<>();
+
+        for (Notification notification : notifications) {
+            Key notificationKey = allocatedKeys.next();
+            notification.setNotificationId(notificationKey.getId());
+            notification.setJobId(jobId);
+            notification.setStatus(status);
+            notification.setAttempts(0);
+            notification.setCreatedAt(createdAt);
+
+            Entity notificationEntity = new Entity(notificationKey);
+            notificationToEntity(notification, notificationEntity);
+            notificationEntities.add(notificationEntity);
+            notificationIds.add(notificationKey.getId());
+        }
+
+        putInBatches(notificationEntities);
+        return notificationIds;
+    }
+
+    public List<Notification> getPendingNotifications(List<Long> notificationIds) {
+        return getNotifications(notificationIds, NotificationStatus.PENDING);
+    }
+
+    public List<Notification> getNotifications(List<Long> notificationIds, NotificationStatus status) {
+
+        List<Key> notificationKeys = new ArrayList<>();
+
+        for (Long notificationId : notificationIds)
+            notificationKeys.add(KeyFactory.createKey(NOTIFICATION_OUTBOX_KIND, notificationId));
+
+        Map<Key, Entity> notificationEntities = datastoreService.get(notificationKeys);
+        List<Notification> notifications = new ArrayList<>();
+
+        for (Key notificationKey : notificationKeys) {
+            Entity notificationEntity = notificationEntities.get(notificationKey);
+
+            if (notificationEntity == null)
+                continue;
+
+            Notification notification = entityToNotification(notificationEntity);
+
+            if (notification.getStatus() == status)
+                notifications.add(notification);
+        }
+
+        return notifications;
+    }
+
+    public NotificationResultPage getNotificationResults(String jobId, @Nullable NotificationStatus status, int limit, @Nullable String cursor) {
+
+        Query.Filter filter = new Query.FilterPredicate(PROPERTY_JOB_ID, Query.FilterOperator.EQUAL, jobId);
+
+        if (status != null)
+            filter = Query.CompositeFilterOperator.and(filter, new Query.FilterPredicate(PROPERTY_STATUS, Query.FilterOperator.EQUAL, status.name()));
+
+        FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+
+        if (cursor != null)
+            fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+
+        QueryResultList<Entity> notificationEntities = datastoreService.prepare(new Query(NOTIFICATION_OUTBOX_KIND).setFilter(filter)).asQueryResultList(fetchOptions);
+        List<NotificationResult> results = new ArrayList<>();
+
+        for (Entity notificationEntity : notificationEntities)
+            results.add(entityToNotificationResult(notificationEntity));
+
+        NotificationResultPage resultPage = new NotificationResultPage();
+        resultPage.setResults(results);
+
+        if (notificationEntities.size() == limit)
+            resultPage.setNextCursor(notificationEntities.getCursor().toWebSafeString());
+
+        return resultPage;
+    }
+
+    public void updateNotifications(List<Notification> notifications) {
+
+        List<Entity> notificationEntities = new ArrayList<>();
+
+        for (Notification notification : notifications) {
+            Entity notificationEntity = new Entity(KeyFactory.createKey(NOTIFICATION_OUTBOX_KIND, notification.getNotificationId()));
+            notificationToEntity(notification, notificationEntity);
+            notificationEntities.add(notificationEntity);
+        }
+
+        putInBatches(notificationEntities);
+    }
+
+    private void putInBatches(List<Entity> entities) {
+        for (int start = 0; start < entities.size(); start += PUT_BATCH_SIZE)
+            datastoreService.put(entities.subList(start, Math.min(start + PUT_BATCH_SIZE, entities.size())));
+
+        log.info(entities.size() + " notificações gravadas no outbox");
+    }
+
+    private void notificationToEntity(Notification notification, Entity notificationEntity) {
+        notificationEntity.setProperty(PROPERTY_JOB_ID, notification.getJobId());
+        notificationEntity.setProperty(PROPERTY_CPF, notification.getCpf());
+        notificationEntity.setUnindexedProperty(PROPERTY_FCM_REG_ID, notification.getFcmRegId());
+        notificationEntity.setUnindexedProperty(PROPERTY_TOPIC, notification.getTopic());
+        notificationEntity.setUnindexedProperty(PROPERTY_SALES_MESSAGE, new Text(notification.getSalesMessage()));
+        notificationEntity.setProperty(PROPERTY_STATUS, notification.getStatus().name());
+        notificationEntity.setUnindexedProperty(PROPERTY_ATTEMPTS, notification.getAttempts());
+        notificationEntity.setUnindexedProperty(PROPERTY_LAST_ERROR, notification.getLastError());
+        notificationEntity.setProperty(PROPERTY_CREATED_AT, notification.getCreatedAt());
+    }
+
+    private Notification entityToNotification(Entity notificationEntity) {
+        Notification notification = new Notification();
+        notification.setNotificationId(notificationEntity.getKey().getId());
+        notification.setJobId((String) notificationEntity.getProperty(PROPERTY_JOB_ID));
+        notification.setCpf((String) notificationEntity.getProperty(PROPERTY_CPF));
+        notification.setFcmRegId((String) notificationEntity.getProperty(PROPERTY_FCM_REG_ID));
+        notification.setTopic((String) notificationEntity.getProperty(PROPERTY_TOPIC));
+        notification.setSalesMessage(((Text) notificationEntity.getProperty(PROPERTY_SALES_MESSAGE)).getValue());
+        notification.setStatus(NotificationStatus.valueOf((String) notificationEntity.getProperty(PROPERTY_STATUS)));
+        notification.setAttempts(((Long) notificationEntity.getProperty(PROPERTY_ATTEMPTS)).intValue());
+        notification.setLastError((String) notificationEntity.getProperty(PROPERTY_LAST_ERROR));
+        notification.setCreatedAt((Date) notificationEntity.getProperty(PROPERTY_CREATED_AT));
+
+        return notification;
+    }
+
+    private NotificationResult entityToNotificationResult(Entity notificationEntity) {
+        NotificationResult result = new NotificationResult();
+        result.setCpf((String) notificationEntity.getProperty(PROPERTY_CPF));
+        result.setTopic((String) notificationEntity.getProperty(PROPERTY_TOPIC));
+        result.setStatus(NotificationStatus.valueOf((String) notificationEntity.getProperty(PROPERTY_STATUS)));
+        result.setAttempts(((Long) notificationEntity.getProperty(PROPERTY_ATTEMPTS)).intValue());
+        result.setLastError((String) notificationEntity.getProperty(PROPERTY_LAST_ERROR));
+
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package br.com.messenger.gae_service.repository;
+
+import br.com.messenger.gae_service.model.PriceUpdate;
+import com.google.appengine.api.datastore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public class PriceUpdateWindowRepository {
+
+    private DatastoreService datastoreService;
+
+    @Autowired
+    public PriceUpdateWindowRepository() {
+        this.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    private static final String PRICE_UPDATE_WINDOW_KIND = "priceUpdateWindows";
+    private static final String PENDING_PRICE_UPDATE_KIND = "pendingPriceUpdates";
+
+    private static final String PROPERTY_NEW_PRODUCT_PRICE = "newProductPrice";
+
+    public void savePriceUpdates(long windowId, Collection<PriceUpdate> priceUpdates) {
+
+        Key windowKey = createWindowKey(windowId);
+        List<Entity> priceUpdateEntities = new ArrayList<>();
+
+        for (PriceUpdate priceUpdate : priceUpdates) {
+            Entity priceUpdateEntity = new Entity(PENDING_PRICE_UPDATE_KIND, priceUpdate.getProductId(), windowKey);
+            priceUpdateEntity.setUnindexedProperty(PROPERTY_NEW_PRODUCT_PRICE, priceUpdate.getNewProductPrice());
+            priceUpdateEntities.add(priceUpdateEntity);
+        }
+
+        datastoreService.put(priceUpdateEntities);
+    }
+
+    public List<PriceUpdate> getPriceUpdates(long windowId) {
+
+        List<PriceUpdate> priceUpdates = new ArrayList<>();
+
+        Query query = new Query(PENDING_PRICE_UPDATE_KIND).setAncestor(createWindowKey(windowId));
+        List<Entity> priceUpdateEntities = datastoreService.prepare(query).asList(FetchOptions.Builder.withDefaults());
+
+        for (Entity priceUpdateEntity : priceUpdateEntities) {
+            PriceUpdate priceUpdate = new PriceUpdate();
+            priceUpdate.setProductId(priceUpdateEntity.getKey().getId());
+            priceUpdate.setNewProductPrice((Double) priceUpdateEntity.getProperty(PROPERTY_NEW_PRODUCT_PRICE));
+            priceUpdates.add(priceUpdate);
+        }
+
+        return priceUpdates;
+    }
+
+    public void deletePriceUpdates(long windowId, Collection<PriceUpdate> priceUpdates) {
+
+        Key windowKey = createWindowKey(windowId);
+        List<Key> priceUpdateKeys = new ArrayList<>();
+
+        for (PriceUpdate priceUpdate : priceUpdates)
+            priceUpdateKeys.add(KeyFactory.createKey(windowKey, PENDING_PRICE_UPDATE_KIND, priceUpdate.getProductId()));
+
+        datastoreService.delete(priceUpdateKeys);
+    }
+
+    private Key createWindowKey(long windowId) {
+        return KeyFactory.createKey(PRICE_UPDATE_WINDOW_KIND, windowId);
+    }
+}
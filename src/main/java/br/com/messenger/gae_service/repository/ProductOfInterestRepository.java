@@ -1,13 +1,19 @@
 package br.com.messenger.gae_service.repository;
 
+import br.com.messenger.gae_service.cache.PriceThresholdIndex;
 import br.com.messenger.gae_service.exception.ProductOfInterestNotFoundException;
 import br.com.messenger.gae_service.exception.UserNotFoundException;
 import br.com.messenger.gae_service.model.ProductOfInterest;
+import br.com.messenger.gae_service.model.ProductOfInterestResult;
+import br.com.messenger.gae_service.util.BatchItemStatus;
 import com.google.appengine.api.datastore.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 @Repository
@@ -15,26 +21,70 @@ public class ProductOfInterestRepository {
 
     private static final Logger log = Logger.getLogger(ProductOfInterestRepository.class.getName());
 
+    private PriceThresholdIndex priceThresholdIndex;
+    private boolean priceThresholdIndexEnabled;
     private DatastoreService datastoreService;
 
     @Autowired
-    public ProductOfInterestRepository() {
+    public ProductOfInterestRepository(PriceThresholdIndex priceThresholdIndex, @Value("${messenger.price-index.enabled:true}") boolean priceThresholdIndexEnabled) {
+        this.priceThresholdIndex = priceThresholdIndex;
+        this.priceThresholdIndexEnabled = priceThresholdIndexEnabled;
         this.datastoreService = DatastoreServiceFactory.getDatastoreService();
     }
 
     private static final String USER_KIND = "users";
 
+    private static final int EXPORT_CHUNK_SIZE = 500;
+
+    private static final int TRANSACTION_RETRIES = 5;
+
     private static final String PRODUCT_OF_INTEREST_KIND = "productsOfInterest";
-    private static final String PRODUCT_OF_INTEREST_KEY = "productOfInterestKey";
 
     private static final String PROPERTY_PRODUCT_OF_INTEREST_ID = "productOfInterestId";
     private static final String PROPERTY_CPF = "cpf";
     private static final String PROPERTY_SALES_PROVIDER_USER_ID = "salesProviderUserId";
     private static final String PROPERTY_SALES_PROVIDER_PRODUCT_ID = "salesProviderProductId";
     private static final String PROPERTY_MIN_PRICE_ALERT = "minPriceAlert";
+    private static final String PROPERTY_SUBSCRIBED_TOPIC = "subscribedTopic";
+    private static final String PROPERTY_SUBSCRIBED_FCM_REG_ID = "subscribedFcmRegId";
+
+    @PostConstruct
+    public void loadPriceThresholdIndex() {
+        if (priceThresholdIndexEnabled)
+            priceThresholdIndex.load(this::forEachProductOfInterest);
+    }
 
     public List<ProductOfInterest> getProductsOfInterestBySalesProviderProductIdAndMinPriceAlert(Long salesProviderProductId, double minPriceAlert) {
 
+        if (!priceThresholdIndexEnabled || !priceThresholdIndex.isReady())
+            return queryProductsOfInterest(salesProviderProductId, minPriceAlert);
+
+        List<ProductOfInterest> productsOfInterest = priceThresholdIndex.getWatchers(salesProviderProductId, minPriceAlert);
+
+        if (productsOfInterest == null) {
+            productsOfInterest = priceThresholdIndex.reload(salesProviderProductId, minPriceAlert, () -> queryProductsOfInterest(salesProviderProductId));
+            log.info("Índice de preços do produto " + salesProviderProductId + " recarregado após escrita recente");
+        }
+
+        return productsOfInterest;
+    }
+
+    private List<ProductOfInterest> queryProductsOfInterest(Long salesProviderProductId) {
+
+        List<ProductOfInterest> productsOfInterest = new ArrayList<>();
+
+        Query.Filter salesProviderProductIdFilter = new Query.FilterPredicate(PROPERTY_SALES_PROVIDER_PRODUCT_ID, Query.FilterOperator.EQUAL, salesProviderProductId);
+        Query query = new Query(PRODUCT_OF_INTEREST_KIND).setFilter(salesProviderProductIdFilter);
+        List<Entity> productOfInterestEntities = datastoreService.prepare(query).asList(FetchOptions.Builder.withDefaults());
+
+        for (Entity productOfInterestEntity : productOfInterestEntities)
+            productsOfInterest.add(entityToProductOfInterest(productOfInterestEntity));
+
+        return productsOfInterest;
+    }
+
+    private List<ProductOfInterest> queryProductsOfInterest(Long salesProviderProductId, double minPriceAlert) {
+
         List<ProductOfInterest> productsOfInterest = new ArrayList<>();
 
         Query.Filter salesProviderProductIdFilter = new Query.FilterPredicate(PROPERTY_SALES_PROVIDER_PRODUCT_ID, Query.FilterOperator.EQUAL, salesProviderProductId);
@@ -49,6 +99,16 @@ public class ProductOfInterestRepository {
         return productsOfInterest;
     }
 
+    public Optional<ProductOfInterest> getProductOfInterest(String cpf, Long salesProviderProductId) {
+
+        Entity productOfInterestEntity = getProductOfInterestEntityByCpfAndSalesProviderProductId(cpf, salesProviderProductId);
+
+        if (productOfInterestEntity != null)
+            return Optional.of(entityToProductOfInterest(productOfInterestEntity));
+        else
+            return Optional.empty();
+    }
+
     public List<ProductOfInterest> getProductsOfInterestByCpf(String cpf) throws UserNotFoundException {
 
         if (!checkIfUserExistsByCpf(cpf))
@@ -66,6 +126,15 @@ public class ProductOfInterestRepository {
         return productsOfInterest;
     }
 
+    public void forEachProductOfInterest(Consumer<ProductOfInterest> consumer) {
+        Query query = new Query(PRODUCT_OF_INTEREST_KIND);
+        FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(EXPORT_CHUNK_SIZE).prefetchSize(EXPORT_CHUNK_SIZE);
+        QueryResultIterator<Entity> productOfInterestEntities = datastoreService.prepare(query).asQueryResultIterator(fetchOptions);
+
+        while (productOfInterestEntities.hasNext())
+            consumer.accept(entityToProductOfInterest(productOfInterestEntities.next()));
+    }
+
     public ProductOfInterest saveProductOfInterest(ProductOfInterest productOfInterest) throws UserNotFoundException {
 
         if (!checkIfUserExistsByCpf(productOfInterest.getCpf()))
@@ -74,13 +143,17 @@ public class ProductOfInterestRepository {
         Entity productOfInterestEntity = getProductOfInterestEntityByCpfAndSalesProviderProductId(productOfInterest.getCpf(), productOfInterest.getSalesProviderProductId());
 
         if (productOfInterestEntity == null) {
-            Key productOfInterestKey = KeyFactory.createKey(PRODUCT_OF_INTEREST_KIND, PRODUCT_OF_INTEREST_KEY);
-            productOfInterestEntity = new Entity(PRODUCT_OF_INTEREST_KIND, productOfInterestKey);
+            productOfInterestEntity = new Entity(createProductOfInterestKey(productOfInterest.getCpf(), productOfInterest.getSalesProviderProductId()));
+            productOfInterestEntity.setProperty(PROPERTY_PRODUCT_OF_INTEREST_ID, datastoreService.allocateIds(PRODUCT_OF_INTEREST_KIND, 1).getStart().getId());
         }
 
         productOfInterestToEntity(productOfInterest, productOfInterestEntity);
         datastoreService.put(productOfInterestEntity);
-        return entityToProductOfInterest(productOfInterestEntity);
+
+        ProductOfInterest savedProductOfInterest = entityToProductOfInterest(productOfInterestEntity);
+        priceThresholdIndex.put(savedProductOfInterest);
+        priceThresholdIndex.markWritten(Collections.singletonList(savedProductOfInterest.getSalesProviderProductId()));
+        return savedProductOfInterest;
     }
 
     public ProductOfInterest deleteProductOfInterest(String cpf, Long salesProviderProductId) throws ProductOfInterestNotFoundException {
@@ -89,29 +162,200 @@ public class ProductOfInterestRepository {
 
         if (productOfInterestEntity != null) {
             datastoreService.delete(productOfInterestEntity.getKey());
+            priceThresholdIndex.remove(cpf, salesProviderProductId);
+            priceThresholdIndex.markWritten(Collections.singletonList(salesProviderProductId));
             return entityToProductOfInterest(productOfInterestEntity);
         } else {
             throw new ProductOfInterestNotFoundException("Produto de Interesse com cpf: " + cpf + " e salesProviderProductId: " + salesProviderProductId + "  não encontrado");
         }
     }
 
-    private boolean checkIfUserExistsByCpf(String cpf) {
+    public List<ProductOfInterestResult> saveProductsOfInterest(String cpf, Collection<ProductOfInterest> productsOfInterest) throws UserNotFoundException {
+
+        if (!checkIfUserExistsByCpf(cpf))
+            throw new UserNotFoundException("Usuário com cpf: " + cpf + " não encontrado");
+
+        List<Key> productOfInterestKeys = new ArrayList<>();
+
+        for (ProductOfInterest productOfInterest : productsOfInterest)
+            productOfInterestKeys.add(createProductOfInterestKey(cpf, productOfInterest.getSalesProviderProductId()));
+
+        Map<Key, Entity> existingEntities = datastoreService.get(productOfInterestKeys);
+        int newCount = productOfInterestKeys.size() - existingEntities.size();
+        Iterator<Key> allocatedKeys = (newCount > 0) ? datastoreService.allocateIds(PRODUCT_OF_INTEREST_KIND, newCount).iterator() : Collections.<Key>emptyIterator();
+
+        List<Entity> productOfInterestEntities = new ArrayList<>();
+        List<ProductOfInterestResult> results = new ArrayList<>();
+        Iterator<Key> keys = productOfInterestKeys.iterator();
+
+        for (ProductOfInterest productOfInterest : productsOfInterest) {
+            Key productOfInterestKey = keys.next();
+            Entity productOfInterestEntity = existingEntities.get(productOfInterestKey);
+            ProductOfInterestResult result = new ProductOfInterestResult(productOfInterest.getSalesProviderProductId(), (productOfInterestEntity != null) ? BatchItemStatus.UPDATED : BatchItemStatus.CREATED);
+
+            if (productOfInterestEntity != null) {
+                result.setPreviousProductOfInterest(entityToProductOfInterest(productOfInterestEntity));
+            } else {
+                productOfInterestEntity = new Entity(productOfInterestKey);
+                productOfInterestEntity.setProperty(PROPERTY_PRODUCT_OF_INTEREST_ID, allocatedKeys.next().getId());
+            }
+
+            productOfInterestToEntity(productOfInterest, productOfInterestEntity);
+            productOfInterestEntities.add(productOfInterestEntity);
+            results.add(result);
+        }
+
+        datastoreService.put(productOfInterestEntities);
+
+        Set<Long> salesProviderProductIds = new HashSet<>();
+
+        for (int i = 0; i < results.size(); i++) {
+            ProductOfInterest savedProductOfInterest = entityToProductOfInterest(productOfInterestEntities.get(i));
+            salesProviderProductIds.add(savedProductOfInterest.getSalesProviderProductId());
+            priceThresholdIndex.put(savedProductOfInterest);
+            results.get(i).setProductOfInterest(savedProductOfInterest);
+        }
+
+        priceThresholdIndex.markWritten(salesProviderProductIds);
+
+        return results;
+    }
+
+    public List<ProductOfInterestResult> deleteProductsOfInterest(String cpf, Collection<Long> salesProviderProductIds) {
+
+        List<Key> productOfInterestKeys = new ArrayList<>();
+
+        for (Long salesProviderProductId : salesProviderProductIds)
+            productOfInterestKeys.add(createProductOfInterestKey(cpf, salesProviderProductId));
+
+        Map<Key, Entity> existingEntities = datastoreService.get(productOfInterestKeys);
+        List<ProductOfInterestResult> results = new ArrayList<>();
+        Iterator<Key> keys = productOfInterestKeys.iterator();
+
+        for (Long salesProviderProductId : salesProviderProductIds) {
+            Entity productOfInterestEntity = existingEntities.get(keys.next());
+
+            if (productOfInterestEntity != null) {
+                ProductOfInterestResult result = new ProductOfInterestResult(salesProviderProductId, BatchItemStatus.DELETED);
+                result.setProductOfInterest(entityToProductOfInterest(productOfInterestEntity));
+                results.add(result);
+            } else {
+                results.add(new ProductOfInterestResult(salesProviderProductId, BatchItemStatus.NOT_FOUND));
+            }
+        }
+
+        if (!existingEntities.isEmpty()) {
+            datastoreService.delete(existingEntities.keySet());
+
+            Set<Long> deletedProductIds = new HashSet<>();
+
+            for (Entity productOfInterestEntity : existingEntities.values()) {
+                Long salesProviderProductId = (Long) productOfInterestEntity.getProperty(PROPERTY_SALES_PROVIDER_PRODUCT_ID);
+                priceThresholdIndex.remove(cpf, salesProviderProductId);
+                deletedProductIds.add(salesProviderProductId);
+            }
+
+            priceThresholdIndex.markWritten(deletedProductIds);
+        }
+
+        return results;
+    }
+
+    public void setSubscribedTopic(String cpf, Long salesProviderProductId, String subscribedTopic, String subscribedFcmRegId) {
+
+        Entity productOfInterestEntity = updateSubscribedTopic(createProductOfInterestKey(cpf, salesProviderProductId), subscribedTopic, subscribedFcmRegId);
+
+        if (productOfInterestEntity != null) {
+            priceThresholdIndex.put(entityToProductOfInterest(productOfInterestEntity));
+            priceThresholdIndex.markWritten(Collections.singletonList(salesProviderProductId));
+        }
+    }
+
+    public List<ProductOfInterest> clearSubscribedTopics(String cpf) {
+
+        List<ProductOfInterest> productsOfInterest = new ArrayList<>();
+        Set<Long> salesProviderProductIds = new HashSet<>();
+
         Query.Filter filter = new Query.FilterPredicate(PROPERTY_CPF, Query.FilterOperator.EQUAL, cpf);
-        Query query = new Query(USER_KIND).setFilter(filter);
-        Entity userEntity = datastoreService.prepare(query).asSingleEntity();
-        return (userEntity != null);
+        Query query = new Query(PRODUCT_OF_INTEREST_KIND).setFilter(filter).setKeysOnly();
+
+        for (Entity productOfInterestKeyEntity : datastoreService.prepare(query).asIterable()) {
+            Entity[] previousProductOfInterestEntity = new Entity[1];
+            Entity productOfInterestEntity = updateSubscribedTopic(productOfInterestKeyEntity.getKey(), null, null, previousProductOfInterestEntity);
+
+            if (productOfInterestEntity == null)
+                continue;
+
+            productsOfInterest.add(entityToProductOfInterest(previousProductOfInterestEntity[0]));
+
+            ProductOfInterest clearedProductOfInterest = entityToProductOfInterest(productOfInterestEntity);
+            priceThresholdIndex.put(clearedProductOfInterest);
+            salesProviderProductIds.add(clearedProductOfInterest.getSalesProviderProductId());
+        }
+
+        priceThresholdIndex.markWritten(salesProviderProductIds);
+        return productsOfInterest;
+    }
+
+    private Entity updateSubscribedTopic(Key productOfInterestKey, String subscribedTopic, String subscribedFcmRegId) {
+        return updateSubscribedTopic(productOfInterestKey, subscribedTopic, subscribedFcmRegId, new Entity[1]);
+    }
+
+    private Entity updateSubscribedTopic(Key productOfInterestKey, String subscribedTopic, String subscribedFcmRegId, Entity[] previousProductOfInterestEntity) {
+
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastoreService.beginTransaction();
+
+            try {
+                Entity productOfInterestEntity = datastoreService.get(transaction, productOfInterestKey);
+                previousProductOfInterestEntity[0] = productOfInterestEntity.clone();
+                subscribedTopicToEntity(subscribedTopic, subscribedFcmRegId, productOfInterestEntity);
+                datastoreService.put(transaction, productOfInterestEntity);
+                transaction.commit();
+                return productOfInterestEntity;
+            } catch (EntityNotFoundException e) {
+                return null;
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= TRANSACTION_RETRIES)
+                    throw e;
+            } finally {
+                if (transaction.isActive())
+                    transaction.rollback();
+            }
+        }
+    }
+
+    private void subscribedTopicToEntity(String subscribedTopic, String subscribedFcmRegId, Entity productOfInterestEntity) {
+        if (subscribedTopic != null) {
+            productOfInterestEntity.setUnindexedProperty(PROPERTY_SUBSCRIBED_TOPIC, subscribedTopic);
+            productOfInterestEntity.setUnindexedProperty(PROPERTY_SUBSCRIBED_FCM_REG_ID, subscribedFcmRegId);
+        } else {
+            productOfInterestEntity.removeProperty(PROPERTY_SUBSCRIBED_TOPIC);
+            productOfInterestEntity.removeProperty(PROPERTY_SUBSCRIBED_FCM_REG_ID);
+        }
+    }
+
+    private boolean checkIfUserExistsByCpf(String cpf) {
+        return getEntity(KeyFactory.createKey(USER_KIND, cpf)) != null;
     }
 
     private Entity getProductOfInterestEntityByCpfAndSalesProviderProductId(String cpf, Long salesProviderProductId) {
-        Query.Filter cpfFilter = new Query.FilterPredicate(PROPERTY_CPF, Query.FilterOperator.EQUAL, cpf);
-        Query.Filter salesProviderProductIdFilter = new Query.FilterPredicate(PROPERTY_SALES_PROVIDER_PRODUCT_ID, Query.FilterOperator.EQUAL, salesProviderProductId);
-        Query.CompositeFilter cpfAndSalesProviderProductIdFilter = Query.CompositeFilterOperator.and(cpfFilter, salesProviderProductIdFilter);
-        Query query = new Query(PRODUCT_OF_INTEREST_KIND).setFilter(cpfAndSalesProviderProductIdFilter);
-        return datastoreService.prepare(query).asSingleEntity();
+        return getEntity(createProductOfInterestKey(cpf, salesProviderProductId));
+    }
+
+    private Entity getEntity(Key key) {
+        try {
+            return datastoreService.get(key);
+        } catch (EntityNotFoundException e) {
+            return null;
+        }
+    }
+
+    private Key createProductOfInterestKey(String cpf, Long salesProviderProductId) {
+        return KeyFactory.createKey(PRODUCT_OF_INTEREST_KIND, cpf + ":" + salesProviderProductId);
     }
 
     private void productOfInterestToEntity(ProductOfInterest productOfInterest, Entity productOfInterestEntity) {
-        productOfInterestEntity.setProperty(PROPERTY_PRODUCT_OF_INTEREST_ID, productOfInterest.getProductOfInterestId());
         productOfInterestEntity.setProperty(PROPERTY_CPF, productOfInterest.getCpf());
         productOfInterestEntity.setProperty(PROPERTY_SALES_PROVIDER_USER_ID, productOfInterest.getSalesProviderUserId());
         productOfInterestEntity.setProperty(PROPERTY_SALES_PROVIDER_PRODUCT_ID, productOfInterest.getSalesProviderProductId());
@@ -120,11 +364,14 @@ public class ProductOfInterestRepository {
 
     private ProductOfInterest entityToProductOfInterest(Entity productOfInterestEntity) {
         ProductOfInterest productOfInterest = new ProductOfInterest();
-        productOfInterest.setProductOfInterestId(productOfInterestEntity.getKey().getId());
+        Long productOfInterestId = (Long) productOfInterestEntity.getProperty(PROPERTY_PRODUCT_OF_INTEREST_ID);
+        productOfInterest.setProductOfInterestId((productOfInterestId != null) ? productOfInterestId : Long.valueOf(productOfInterestEntity.getKey().getId()));
         productOfInterest.setCpf((String) productOfInterestEntity.getProperty(PROPERTY_CPF));
         productOfInterest.setSalesProviderUserId((Long) productOfInterestEntity.getProperty(PROPERTY_SALES_PROVIDER_USER_ID));
         productOfInterest.setSalesProviderProductId((Long) productOfInterestEntity.getProperty(PROPERTY_SALES_PROVIDER_PRODUCT_ID));
         productOfInterest.setMinPriceAlert((Double) productOfInterestEntity.getProperty(PROPERTY_MIN_PRICE_ALERT));
+        productOfInterest.setSubscribedTopic((String) productOfInterestEntity.getProperty(PROPERTY_SUBSCRIBED_TOPIC));
+        productOfInterest.setSubscribedFcmRegId((String) productOfInterestEntity.getProperty(PROPERTY_SUBSCRIBED_FCM_REG_ID));
 
         return productOfInterest;
     }
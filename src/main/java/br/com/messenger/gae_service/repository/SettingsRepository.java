@@ -0,0 +1,61 @@
+package br.com.messenger.gae_service.repository;
+
+import com.google.appengine.api.datastore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ConcurrentModificationException;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+@Repository
+public class SettingsRepository {
+
+    private static final Logger log = Logger.getLogger(SettingsRepository.class.getName());
+
+    private DatastoreService datastoreService;
+
+    @Autowired
+    public SettingsRepository() {
+        this.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    private static final String SETTINGS_KIND = "settings";
+
+    private static final int TRANSACTION_RETRIES = 5;
+
+    private static final String PROPERTY_VALUE = "value";
+
+    public long getOrCreate(String name, LongSupplier initialValue) {
+
+        Key settingKey = KeyFactory.createKey(SETTINGS_KIND, name);
+
+        try {
+            return (Long) datastoreService.get(settingKey).getProperty(PROPERTY_VALUE);
+        } catch (EntityNotFoundException e) {
+            log.info("Configuração " + name + " não encontrada, calculando valor inicial");
+        }
+
+        long value = initialValue.getAsLong();
+
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastoreService.beginTransaction();
+
+            try {
+                return (Long) datastoreService.get(transaction, settingKey).getProperty(PROPERTY_VALUE);
+            } catch (EntityNotFoundException e) {
+                Entity settingEntity = new Entity(settingKey);
+                settingEntity.setUnindexedProperty(PROPERTY_VALUE, value);
+                datastoreService.put(transaction, settingEntity);
+                transaction.commit();
+                return value;
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= TRANSACTION_RETRIES)
+                    throw e;
+            } finally {
+                if (transaction.isActive())
+                    transaction.rollback();
+            }
+        }
+    }
+}
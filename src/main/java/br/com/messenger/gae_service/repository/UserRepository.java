@@ -1,19 +1,20 @@
 package br.com.messenger.gae_service.repository;
 
+import br.com.messenger.gae_service.cache.UserCache;
 import br.com.messenger.gae_service.exception.UserAlreadyExistsException;
 import br.com.messenger.gae_service.exception.UserNotFoundException;
 import br.com.messenger.gae_service.model.User;
+import br.com.messenger.gae_service.model.UserPage;
 import com.google.appengine.api.datastore.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
-import javax.cache.Cache;
-import javax.cache.CacheException;
-import javax.cache.CacheFactory;
-import javax.cache.CacheManager;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 
 @Repository
@@ -23,16 +24,23 @@ public class UserRepository {
     private static final Logger log = Logger.getLogger(UserRepository.class.getName());
 
     private PasswordEncoder passwordEncoder;
+    private UserCache userCache;
     private DatastoreService datastoreService;
 
     @Autowired
-    public UserRepository(PasswordEncoder passwordEncoder) {
+    public UserRepository(PasswordEncoder passwordEncoder, UserCache userCache) {
         this.passwordEncoder = passwordEncoder;
+        this.userCache = userCache;
         this.datastoreService = DatastoreServiceFactory.getDatastoreService();
     }
 
     private static final String USER_KIND = "users";
-    private static final String USER_KEY = "userKey";
+    private static final String USER_EMAIL_KIND = "userEmails";
+
+    private static final int GET_BATCH_SIZE = 1000;
+    private static final int EXPORT_CHUNK_SIZE = 500;
+    private static final int TRANSACTION_RETRIES = 5;
+    private static final int XG_BATCH_SIZE = 25;
 
     private static final String PROPERTY_ID = "userId";
     private static final String PROPERTY_EMAIL = "email";
@@ -46,6 +54,9 @@ public class UserRepository {
     private static final String PROPERTY_SALES_PROVIDER_USER_ID = "salesProviderUserId";
     private static final String PROPERTY_CRM_PROVIDER_USER_ID = "crmProviderUserId";
     private static final String PROPERTY_ENABLED = "enabled";
+    private static final String PROPERTY_USER_KEY = "userKey";
+
+    private static final Set<String> PATCHABLE_PROPERTIES = new HashSet<>(Arrays.asList(PROPERTY_EMAIL, PROPERTY_PASSWORD, PROPERTY_FCM_REG_ID, PROPERTY_ROLE, PROPERTY_CPF, PROPERTY_SALES_PROVIDER_USER_ID, PROPERTY_CRM_PROVIDER_USER_ID, PROPERTY_ENABLED));
 
     @PostConstruct
     public void init() {
@@ -74,43 +85,160 @@ public class UserRepository {
         }
     }
 
-    public void updateUserLogin(User user) {
+    public int updateLastLogins(Map<String, Date> lastLoginsByEmail) {
 
-        boolean canUseCache = true;
-        boolean saveOnCache = true;
+        List<Key> userEmailKeys = new ArrayList<>();
 
-        try {
-            CacheFactory cacheFactory = CacheManager.getInstance().getCacheFactory();
-            Cache cache = cacheFactory.createCache(Collections.emptyMap());
+        for (String email : lastLoginsByEmail.keySet())
+            userEmailKeys.add(createUserEmailKey(email));
+
+        Map<Key, String> emailsByUserKey = new LinkedHashMap<>();
+
+        for (Entity userEmailEntity : datastoreService.get(userEmailKeys).values())
+            emailsByUserKey.put((Key) userEmailEntity.getProperty(PROPERTY_USER_KEY), userEmailEntity.getKey().getName());
+
+        List<Key> userKeys = new ArrayList<>(emailsByUserKey.keySet());
+        int updated = 0;
+
+        for (int start = 0; start < userKeys.size(); start += XG_BATCH_SIZE)
+            updated += updateLastLogins(userKeys.subList(start, Math.min(start + XG_BATCH_SIZE, userKeys.size())), emailsByUserKey, lastLoginsByEmail);
+
+        return updated;
+    }
+
+    private int updateLastLogins(List<Key> userKeys, Map<Key, String> emailsByUserKey, Map<String, Date> lastLoginsByEmail) {
+
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastoreService.beginTransaction(TransactionOptions.Builder.withXG(true));
+
+            try {
+                List<Entity> userEntities = new ArrayList<>();
 
-            if (cache.containsKey(user.getEmail())) {
-                Date lastLogin = (Date) cache.get(user.getEmail());
-                if ((Calendar.getInstance().getTime().getTime() - lastLogin.getTime()) < 30000) {
-                    saveOnCache = false;
+                for (Entity userEntity : datastoreService.get(transaction, userKeys).values()) {
+                    String email = emailsByUserKey.get(userEntity.getKey());
+                    Date lastLogin = lastLoginsByEmail.get(email);
+                    Date currentLastLogin = (Date) userEntity.getProperty(PROPERTY_LAST_LOGIN);
+
+                    if (email.equals(userEntity.getProperty(PROPERTY_EMAIL)) && (currentLastLogin == null || currentLastLogin.before(lastLogin))) {
+                        userEntity.setProperty(PROPERTY_LAST_LOGIN, lastLogin);
+                        userEntities.add(userEntity);
+                    }
                 }
-            }
 
-            if (saveOnCache) {
-                cache.put(user.getEmail(), (Date) Calendar.getInstance().getTime());
-                canUseCache = false;
+                if (userEntities.isEmpty())
+                    return 0;
+
+                datastoreService.put(transaction, userEntities);
+                transaction.commit();
+
+                for (Entity userEntity : userEntities)
+                    userCache.invalidate(userEntity);
+
+                return userEntities.size();
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= TRANSACTION_RETRIES)
+                    throw e;
+            } finally {
+                if (transaction.isActive())
+                    transaction.rollback();
             }
-        } catch (CacheException e) {
-            canUseCache = false;
         }
+    }
 
-        if (!canUseCache) {
-            user.setLastLogin(Calendar.getInstance().getTime());
-            try {
-                this.updateUser(user, user.getEmail(), false, false, true);
-            } catch (UserAlreadyExistsException | UserNotFoundException e) {
-                log.severe("Falha ao atualizar último login do usuário");
-            }
+    public boolean updatePassword(String email, String previousEncodedPassword, String encodedPassword) {
+
+        Entity userEmailEntity = getEntity(createUserEmailKey(email));
+
+        if (userEmailEntity == null)
+            return false;
+
+        boolean[] updated = new boolean[1];
+
+        updateUserEntity((Key) userEmailEntity.getProperty(PROPERTY_USER_KEY), email, userEntity -> {
+            updated[0] = previousEncodedPassword.equals(userEntity.getProperty(PROPERTY_PASSWORD));
+
+            if (updated[0])
+                userEntity.setProperty(PROPERTY_PASSWORD, encodedPassword);
+
+            return updated[0];
+        });
+
+        return updated[0];
+    }
+
+    public User registerFcmRegId(@Nullable String cpf, String email, String fcmRegId) throws UserNotFoundException {
+
+        Entity[] previousUserEntity = new Entity[1];
+        Predicate<Entity> update = userEntity -> {
+            previousUserEntity[0] = userEntity.clone();
+
+            if (fcmRegId.equals(userEntity.getProperty(PROPERTY_FCM_REG_ID)))
+                return false;
+
+            userEntity.setProperty(PROPERTY_FCM_REG_ID, fcmRegId);
+            userEntity.setProperty(PROPERTY_LAST_FCM_REGISTER, Calendar.getInstance().getTime());
+            return true;
+        };
+
+        Entity userEntity = (cpf != null) ? updateUserEntity(createUserKey(cpf), email, update) : null;
+
+        if (userEntity == null) {
+            Entity userEmailEntity = getEntity(createUserEmailKey(email));
+
+            if (userEmailEntity != null)
+                userEntity = updateUserEntity((Key) userEmailEntity.getProperty(PROPERTY_USER_KEY), email, update);
         }
+
+        if (userEntity == null)
+            throw new UserNotFoundException("Usuário " + email + " não encontrado");
+
+        return entityToUser(previousUserEntity[0]);
+    }
+
+    public int clearFcmRegIds(Map<String, String> fcmRegIdsByCpf) {
+
+        List<Key> userKeys = new ArrayList<>();
+
+        for (String cpf : fcmRegIdsByCpf.keySet())
+            userKeys.add(createUserKey(cpf));
+
+        int cleared = 0;
+
+        for (Entity userEntity : datastoreService.get(userKeys).values()) {
+            String fcmRegId = fcmRegIdsByCpf.get(userEntity.getKey().getName());
+
+            if (!fcmRegId.equals(userEntity.getProperty(PROPERTY_FCM_REG_ID)))
+                continue;
+
+            boolean[] updated = new boolean[1];
+
+            updateUserEntity(userEntity.getKey(), null, entity -> {
+                updated[0] = fcmRegId.equals(entity.getProperty(PROPERTY_FCM_REG_ID));
+
+                if (updated[0])
+                    entity.setProperty(PROPERTY_FCM_REG_ID, null);
+
+                return updated[0];
+            });
+
+            if (updated[0])
+                cleared++;
+        }
+
+        return cleared;
     }
 
     public Optional<User> getByEmail(String email) {
         log.info("Get user by email: " + email);
-        Entity userEntity = getUserEntityByEmail(email);
+        Long version = userCache.getVersionByEmail(email);
+        Entity userEntity = userCache.getByEmail(email, version);
+
+        if (userEntity == null) {
+            userEntity = getUserEntityByEmail(email);
+
+            if (userEntity != null)
+                userCache.putByEmail(email, userEntity, version);
+        }
 
         if (userEntity != null)
             return Optional.of(entityToUser(userEntity));
@@ -120,7 +248,15 @@ public class UserRepository {
 
     public Optional<User> getByCpf(String cpf) {
         log.info("Get user by cpf: " + cpf);
-        Entity userEntity = getUserEntityByCpf(cpf);
+        Long version = userCache.getVersionByCpf(cpf);
+        Entity userEntity = userCache.getByCpf(cpf, version);
+
+        if (userEntity == null) {
+            userEntity = getUserEntityByCpf(cpf);
+
+            if (userEntity != null)
+                userCache.putByCpf(cpf, userEntity, version);
+        }
 
         if (userEntity != null)
             return Optional.of(entityToUser(userEntity));
@@ -128,15 +264,77 @@ public class UserRepository {
             return Optional.empty();
     }
 
-    public List<User> getUsers() {
-        List<User> users = new ArrayList<>();
+    public Map<String, User> getByCpfs(Collection<String> cpfs) {
+
+        Map<String, User> usersByCpf = new HashMap<>();
+        Set<String> distinctCpfs = new LinkedHashSet<>(cpfs);
+        List<Key> userKeys = new ArrayList<>();
+
+        Map<String, Long> versionsByCpf = userCache.getVersionsByCpfs(distinctCpfs);
+
+        for (Entity userEntity : userCache.getByCpfs(distinctCpfs, versionsByCpf).values()) {
+            User user = entityToUser(userEntity);
+            usersByCpf.put(user.getCpf(), user);
+        }
+
+        for (String cpf : distinctCpfs) {
+            if (!usersByCpf.containsKey(cpf))
+                userKeys.add(createUserKey(cpf));
+        }
+
+        for (int start = 0; start < userKeys.size(); start += GET_BATCH_SIZE) {
+            List<Key> keyBatch = userKeys.subList(start, Math.min(start + GET_BATCH_SIZE, userKeys.size()));
+
+            for (Map.Entry<Key, Entity> userEntry : datastoreService.get(keyBatch).entrySet()) {
+                String cpf = userEntry.getKey().getName();
+                userCache.putByCpf(cpf, userEntry.getValue(), versionsByCpf.get(cpf));
+                User user = entityToUser(userEntry.getValue());
+                usersByCpf.put(user.getCpf(), user);
+            }
+        }
+
+        log.info("Get users by cpf: " + distinctCpfs.size() + " cpfs, " + userKeys.size() + " not cached, " + usersByCpf.size() + " users found");
+        return usersByCpf;
+    }
+
+    public UserPage getUsers(int limit, String cursor, boolean projection) {
+
         Query query = new Query(USER_KIND).addSort(PROPERTY_EMAIL, Query.SortDirection.ASCENDING);
-        List<Entity> userEntities = datastoreService.prepare(query).asList(FetchOptions.Builder.withDefaults());
+
+        if (projection) {
+            query.addProjection(new PropertyProjection(PROPERTY_EMAIL, String.class));
+            query.addProjection(new PropertyProjection(PROPERTY_CPF, String.class));
+            query.addProjection(new PropertyProjection(PROPERTY_ROLE, String.class));
+            query.addProjection(new PropertyProjection(PROPERTY_ENABLED, Boolean.class));
+        }
+
+        FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+
+        if (cursor != null)
+            fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+
+        QueryResultList<Entity> userEntities = datastoreService.prepare(query).asQueryResultList(fetchOptions);
+        List<User> users = new ArrayList<>();
 
         for (Entity userEntity : userEntities)
-            users.add(entityToUser(userEntity));
+            users.add(projection ? projectionToUser(userEntity) : entityToUser(userEntity));
+
+        UserPage userPage = new UserPage();
+        userPage.setUsers(users);
+
+        if (userEntities.size() == limit)
+            userPage.setNextCursor(userEntities.getCursor().toWebSafeString());
+
+        return userPage;
+    }
+
+    public void forEachUser(Consumer<User> consumer) {
+        Query query = new Query(USER_KIND);
+        FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(EXPORT_CHUNK_SIZE).prefetchSize(EXPORT_CHUNK_SIZE);
+        QueryResultIterator<Entity> userEntities = datastoreService.prepare(query).asQueryResultIterator(fetchOptions);
 
-        return users;
+        while (userEntities.hasNext())
+            consumer.accept(entityToUser(userEntities.next()));
     }
 
     public User deleteUser(String cpf) throws UserNotFoundException {
@@ -144,7 +342,8 @@ public class UserRepository {
         Entity userEntity = getUserEntityByCpf(cpf);
 
         if (userEntity != null) {
-            datastoreService.delete(userEntity.getKey());
+            datastoreService.delete(Arrays.asList(userEntity.getKey(), createUserEmailKey((String) userEntity.getProperty(PROPERTY_EMAIL))));
+            userCache.invalidate(userEntity);
             return entityToUser(userEntity);
         } else {
             throw new UserNotFoundException("Usuário com cpf: " + cpf + " não encontrado");
@@ -153,77 +352,268 @@ public class UserRepository {
 
     public User saveUser(User user) throws UserAlreadyExistsException {
 
-        if (checkIfEmailExists(user))
-            throw new UserAlreadyExistsException("Usuário com email: " + user.getEmail() + " já existe");
+        Key allocatedKey = datastoreService.allocateIds(USER_KIND, 1).getStart();
+        Entity userEntity = new Entity(user.getCpf() != null ? createUserKey(user.getCpf()) : allocatedKey);
+        user.setId(allocatedKey.getId());
+        userToEntity(user, userEntity, true, true, false);
+        Entity userEmailEntity = createUserEmailEntity(user.getEmail(), userEntity.getKey());
 
-        if (checkIfCpfExists(user))
-            throw new UserAlreadyExistsException("Usuário com cpf: " + user.getCpf() + " já existe");
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastoreService.beginTransaction(TransactionOptions.Builder.withXG(true));
 
-        Key userKey = KeyFactory.createKey(USER_KIND, USER_KEY);
-        Entity userEntity = new Entity(USER_KIND, userKey);
-        userToEntity(user, userEntity, true, true, false);
-        datastoreService.put(userEntity);
+            try {
+                Map<Key, Entity> existingEntities = datastoreService.get(transaction, Arrays.asList(userEmailEntity.getKey(), userEntity.getKey()));
+
+                if (existingEntities.containsKey(userEmailEntity.getKey()))
+                    throw new UserAlreadyExistsException("Usuário com email: " + user.getEmail() + " já existe");
+
+                if (existingEntities.containsKey(userEntity.getKey()))
+                    throw new UserAlreadyExistsException("Usuário com cpf: " + user.getCpf() + " já existe");
+
+                datastoreService.put(transaction, Arrays.asList(userEntity, userEmailEntity));
+                transaction.commit();
+                break;
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= TRANSACTION_RETRIES)
+                    throw e;
+            } finally {
+                if (transaction.isActive())
+                    transaction.rollback();
+            }
+        }
+
+        userCache.invalidate(userEntity);
         return entityToUser(userEntity);
     }
 
     public User updateUser(User user, String email, boolean encodePassword, boolean updateLastUpdate, boolean updateLastLogin) throws UserAlreadyExistsException, UserNotFoundException {
+        return updateUser(email, userEntity -> {
+            user.setId(getUserId(userEntity));
+            userToEntity(user, userEntity, encodePassword, updateLastUpdate, updateLastLogin);
+            return true;
+        });
+    }
 
-        if (!checkIfEmailExists(user)) {
+    public User patchUser(String email, Map<String, Object> fields) throws UserAlreadyExistsException, UserNotFoundException {
 
-            Entity userEntity = getUserEntityByEmail(email);
+        Entity userEntity = getUserEntityByEmail(email);
 
-            if (userEntity != null) {
-                userToEntity(user, userEntity, encodePassword, updateLastUpdate, updateLastLogin);
-                datastoreService.put(userEntity);
-                return entityToUser(userEntity);
-            } else {
-                throw new UserNotFoundException("Usuário " + email + " não encontrado");
+        if (userEntity == null)
+            throw new UserNotFoundException("Usuário " + email + " não encontrado");
+
+        Map<String, Object> patchedProperties = new HashMap<>();
+
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (!PATCHABLE_PROPERTIES.contains(field.getKey()))
+                throw new IllegalArgumentException("Propriedade '" + field.getKey() + "' não pode ser alterada parcialmente.");
+
+            if (!PROPERTY_PASSWORD.equals(field.getKey()))
+                patchedProperties.put(field.getKey(), field.getValue());
+            else if (!passwordEncoder.matches((String) field.getValue(), (String) userEntity.getProperty(PROPERTY_PASSWORD)))
+                patchedProperties.put(PROPERTY_PASSWORD, passwordEncoder.encode((String) field.getValue()));
+        }
+
+        if (patchedProperties.isEmpty())
+            return entityToUser(userEntity);
+
+        Predicate<Entity> patch = entity -> patchUserEntity(entity, patchedProperties);
+
+        if (isPatchChangingKey(userEntity, patchedProperties, PROPERTY_EMAIL) || isPatchChangingKey(userEntity, patchedProperties, PROPERTY_CPF))
+            return updateUser(email, patch);
+
+        Entity patchedUserEntity = updateUserEntity(userEntity.getKey(), email, patch);
+
+        if (patchedUserEntity == null)
+            throw new UserNotFoundException("Usuário " + email + " não encontrado");
+
+        return entityToUser(patchedUserEntity);
+    }
+
+    private boolean isPatchChangingKey(Entity userEntity, Map<String, Object> patchedProperties, String property) {
+        return patchedProperties.containsKey(property) && !Objects.equals(patchedProperties.get(property), userEntity.getProperty(property));
+    }
+
+    private boolean patchUserEntity(Entity userEntity, Map<String, Object> patchedProperties) {
+
+        boolean changed = false;
+
+        for (Map.Entry<String, Object> patchedProperty : patchedProperties.entrySet()) {
+            if (Objects.equals(patchedProperty.getValue(), userEntity.getProperty(patchedProperty.getKey())))
+                continue;
+
+            userEntity.setProperty(patchedProperty.getKey(), patchedProperty.getValue());
+            changed = true;
+
+            if (PROPERTY_FCM_REG_ID.equals(patchedProperty.getKey()))
+                userEntity.setProperty(PROPERTY_LAST_FCM_REGISTER, Calendar.getInstance().getTime());
+        }
+
+        if (changed)
+            userEntity.setProperty(PROPERTY_LAST_UPDATE, Calendar.getInstance().getTime());
+
+        return changed;
+    }
+
+    private User updateUser(String email, Predicate<Entity> update) throws UserAlreadyExistsException, UserNotFoundException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return updateUserInTransaction(email, update);
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= TRANSACTION_RETRIES)
+                    throw e;
             }
-        } else {
-            throw new UserAlreadyExistsException("Usuário " + user.getEmail() + " já existe");
         }
     }
 
-    private boolean checkIfEmailExists(User user) {
+    private User updateUserInTransaction(String email, Predicate<Entity> update) throws UserAlreadyExistsException, UserNotFoundException {
 
-        Entity userEntity = getUserEntityByEmail(user.getEmail());
+        Transaction transaction = datastoreService.beginTransaction(TransactionOptions.Builder.withXG(true));
 
-        if (userEntity == null) {
-            return false;
-        } else {
-            if (user.getId() == null) {
-                return true;
-            } else {
-                return userEntity.getKey().getId() != user.getId();
+        try {
+            Entity userEmailEntity = getEntity(transaction, createUserEmailKey(email));
+
+            if (userEmailEntity == null)
+                throw new UserNotFoundException("Usuário " + email + " não encontrado");
+
+            Key userKey = (Key) userEmailEntity.getProperty(PROPERTY_USER_KEY);
+            Entity userEntity = getEntity(transaction, userKey);
+
+            if (userEntity == null)
+                throw new UserNotFoundException("Usuário " + email + " não encontrado");
+
+            String previousCpf = (String) userEntity.getProperty(PROPERTY_CPF);
+
+            if (!update.test(userEntity))
+                return entityToUser(userEntity);
+
+            String newEmail = (String) userEntity.getProperty(PROPERTY_EMAIL);
+            String newCpf = (String) userEntity.getProperty(PROPERTY_CPF);
+            Key newUserEmailKey = createUserEmailKey(newEmail);
+            Key cpfUserKey = (newCpf != null) ? createUserKey(newCpf) : null;
+            boolean emailChanged = !newEmail.equals(email);
+
+            List<Key> keysToGet = new ArrayList<>();
+
+            if (emailChanged)
+                keysToGet.add(newUserEmailKey);
+
+            if (cpfUserKey != null && !cpfUserKey.equals(userKey))
+                keysToGet.add(cpfUserKey);
+
+            Map<Key, Entity> entities = keysToGet.isEmpty() ? Collections.<Key, Entity>emptyMap() : datastoreService.get(transaction, keysToGet);
+
+            if (emailChanged && entities.containsKey(newUserEmailKey) && !userKey.equals(entities.get(newUserEmailKey).getProperty(PROPERTY_USER_KEY)))
+                throw new UserAlreadyExistsException("Usuário " + newEmail + " já existe");
+
+            List<Entity> entitiesToPut = new ArrayList<>();
+            List<Key> keysToDelete = new ArrayList<>();
+
+            if (newCpf != null && !newCpf.equals(previousCpf) && !cpfUserKey.equals(userKey)) {
+
+                if (entities.containsKey(cpfUserKey))
+                    throw new UserAlreadyExistsException("Usuário com cpf: " + newCpf + " já existe");
+
+                Entity movedUserEntity = new Entity(cpfUserKey);
+                movedUserEntity.setPropertiesFrom(userEntity);
+                keysToDelete.add(userKey);
+                userEntity = movedUserEntity;
             }
+
+            if (emailChanged)
+                keysToDelete.add(createUserEmailKey(email));
+
+            entitiesToPut.add(userEntity);
+
+            if (!keysToDelete.isEmpty())
+                entitiesToPut.add(createUserEmailEntity(newEmail, userEntity.getKey()));
+
+            datastoreService.put(transaction, entitiesToPut);
+
+            if (!keysToDelete.isEmpty())
+                datastoreService.delete(transaction, keysToDelete);
+
+            transaction.commit();
+
+            userCache.invalidate(email, previousCpf);
+            userCache.invalidate(userEntity);
+            return entityToUser(userEntity);
+        } finally {
+            if (transaction.isActive())
+                transaction.rollback();
         }
     }
 
-    private boolean checkIfCpfExists(User user) {
+    private Entity updateUserEntity(Key userKey, @Nullable String email, Predicate<Entity> update) {
 
-        Entity userEntity = getUserEntityByCpf(user.getCpf());
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastoreService.beginTransaction();
 
-        if (userEntity == null) {
-            return false;
-        } else {
-            if (user.getId() == null) {
-                return true;
-            } else {
-                return userEntity.getKey().getId() != user.getId();
+            try {
+                Entity userEntity = getEntity(transaction, userKey);
+
+                if (userEntity == null || (email != null && !email.equals(userEntity.getProperty(PROPERTY_EMAIL))))
+                    return null;
+
+                if (update.test(userEntity)) {
+                    datastoreService.put(transaction, userEntity);
+                    transaction.commit();
+                    userCache.invalidate(userEntity);
+                }
+
+                return userEntity;
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= TRANSACTION_RETRIES)
+                    throw e;
+            } finally {
+                if (transaction.isActive())
+                    transaction.rollback();
             }
         }
     }
 
     private Entity getUserEntityByEmail(String email) {
-        Query.Filter filter = new Query.FilterPredicate(PROPERTY_EMAIL, Query.FilterOperator.EQUAL, email);
-        Query query = new Query(USER_KIND).setFilter(filter);
-        return datastoreService.prepare(query).asSingleEntity();
+
+        Entity userEmailEntity = getEntity(createUserEmailKey(email));
+
+        if (userEmailEntity != null)
+            return getEntity((Key) userEmailEntity.getProperty(PROPERTY_USER_KEY));
+        else
+            return null;
     }
 
     private Entity getUserEntityByCpf(String cpf) {
-        Query.Filter filter = new Query.FilterPredicate(PROPERTY_CPF, Query.FilterOperator.EQUAL, cpf);
-        Query query = new Query(USER_KIND).setFilter(filter);
-        return datastoreService.prepare(query).asSingleEntity();
+        return getEntity(createUserKey(cpf));
+    }
+
+    private Entity getEntity(Key key) {
+        return getEntity(null, key);
+    }
+
+    private Entity getEntity(Transaction transaction, Key key) {
+        try {
+            return datastoreService.get(transaction, key);
+        } catch (EntityNotFoundException e) {
+            return null;
+        }
+    }
+
+    private Long getUserId(Entity userEntity) {
+        Long userId = (Long) userEntity.getProperty(PROPERTY_ID);
+        return (userId != null) ? userId : Long.valueOf(userEntity.getKey().getId());
+    }
+
+    private Key createUserKey(String cpf) {
+        return KeyFactory.createKey(USER_KIND, cpf);
+    }
+
+    private Key createUserEmailKey(String email) {
+        return KeyFactory.createKey(USER_EMAIL_KIND, email);
+    }
+
+    private Entity createUserEmailEntity(String email, Key userKey) {
+        Entity userEmailEntity = new Entity(createUserEmailKey(email));
+        userEmailEntity.setUnindexedProperty(PROPERTY_USER_KEY, userKey);
+        return userEmailEntity;
     }
 
     private void userToEntity(User user, Entity userEntity, boolean encodePassword, boolean updateLastUpdate, boolean updateLastLogin) {
@@ -263,7 +653,7 @@ public class UserRepository {
 
     private User entityToUser(Entity userEntity) {
         User user = new User();
-        user.setId(userEntity.getKey().getId());
+        user.setId(getUserId(userEntity));
         user.setEmail((String) userEntity.getProperty(PROPERTY_EMAIL));
         user.setPassword((String) userEntity.getProperty(PROPERTY_PASSWORD));
         user.setFcmRegId((String) userEntity.getProperty(PROPERTY_FCM_REG_ID));
@@ -278,4 +668,14 @@ public class UserRepository {
 
         return user;
     }
+
+    private User projectionToUser(Entity userEntity) {
+        User user = new User();
+        user.setEmail((String) userEntity.getProperty(PROPERTY_EMAIL));
+        user.setCpf((String) userEntity.getProperty(PROPERTY_CPF));
+        user.setRole((String) userEntity.getProperty(PROPERTY_ROLE));
+        user.setEnabled(Boolean.TRUE.equals(userEntity.getProperty(PROPERTY_ENABLED)));
+
+        return user;
+    }
 }
@@ -0,0 +1,59 @@
+package br.com.messenger.gae_service.service;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+@Service
+@ConditionalOnProperty(name = "messenger.outbox.queue", havingValue = "appengine", matchIfMissing = true)
+public class AppEngineNotificationQueue implements NotificationQueue {
+
+    private static final Logger log = Logger.getLogger(AppEngineNotificationQueue.class.getName());
+
+    private static final String QUEUE_NAME = "notifications";
+    private static final String DRAIN_URL = "/tasks/notifications/drain";
+    private static final String DIGEST_URL = "/tasks/notifications/digest";
+
+    private static final String PRICE_UPDATE_QUEUE_NAME = "priceUpdates";
+    private static final String PRICE_UPDATE_FLUSH_URL = "/tasks/price-updates/flush";
+    private static final String PRICE_UPDATE_WINDOW_PREFIX = "priceUpdates-";
+
+    @Override
+    public void enqueue(String jobId, List<Long> notificationIds, long delayMillis) {
+        add(DRAIN_URL, jobId, notificationIds, delayMillis);
+    }
+
+    @Override
+    public void enqueueDigest(String jobId, List<Long> notificationIds, long delayMillis) {
+        add(DIGEST_URL, jobId, notificationIds, delayMillis);
+    }
+
+    @Override
+    public void enqueuePriceUpdateFlush(long windowId, long delayMillis) {
+        try {
+            QueueFactory.getQueue(PRICE_UPDATE_QUEUE_NAME).add(TaskOptions.Builder.withUrl(PRICE_UPDATE_FLUSH_URL)
+                    .taskName(PRICE_UPDATE_WINDOW_PREFIX + windowId)
+                    .method(TaskOptions.Method.POST)
+                    .param("windowId", String.valueOf(windowId))
+                    .countdownMillis(delayMillis));
+        } catch (TaskAlreadyExistsException e) {
+            log.fine("Envio da janela de atualizações de preço " + windowId + " já agendado");
+        }
+    }
+
+    private void add(String url, String jobId, List<Long> notificationIds, long delayMillis) {
+        Queue queue = QueueFactory.getQueue(QUEUE_NAME);
+        queue.add(TaskOptions.Builder.withUrl(url)
+                .method(TaskOptions.Method.POST)
+                .param("jobId", jobId)
+                .param("ids", notificationIds.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .countdownMillis(delayMillis));
+    }
+}
@@ -0,0 +1,88 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.repository.UserRepository;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.MessagingErrorCode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+@Service
+public class InvalidTokenPruner {
+
+    private static final Logger log = Logger.getLogger(InvalidTokenPruner.class.getName());
+
+    private static final String NAMESPACE = "invalidTokenStats";
+    private static final String CLEARED_COUNTER = "CLEARED";
+
+    private static final String INVALID_TOKEN_ERROR_MESSAGE = "registration token";
+
+    private static final Set<MessagingErrorCode> INVALID_TOKEN_ERROR_CODES = EnumSet.of(MessagingErrorCode.UNREGISTERED, MessagingErrorCode.INVALID_ARGUMENT);
+
+    private final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    @Autowired
+    private UserRepository userRepository;
+
+    public boolean isInvalidToken(FirebaseMessagingException exception) {
+
+        MessagingErrorCode errorCode = exception.getMessagingErrorCode();
+
+        if (errorCode == MessagingErrorCode.UNREGISTERED)
+            return true;
+
+        return errorCode == MessagingErrorCode.INVALID_ARGUMENT
+                && exception.getMessage() != null
+                && exception.getMessage().toLowerCase(Locale.ROOT).contains(INVALID_TOKEN_ERROR_MESSAGE);
+    }
+
+    public void prune(Map<String, String> invalidTokensByCpf, Map<MessagingErrorCode, Integer> countsByErrorCode) {
+
+        if (invalidTokensByCpf.isEmpty())
+            return;
+
+        int cleared = userRepository.clearFcmRegIds(invalidTokensByCpf);
+        log.info("Tokens FCM inválidos: " + invalidTokensByCpf.size() + " encontrados, " + cleared + " removidos dos usuários");
+
+        Map<String, Long> increments = new HashMap<>();
+
+        for (Map.Entry<MessagingErrorCode, Integer> count : countsByErrorCode.entrySet())
+            increments.put(count.getKey().name(), count.getValue().longValue());
+
+        increments.put(CLEARED_COUNTER, (long) cleared);
+
+        try {
+            memcacheService.incrementAll(increments, 0L);
+        } catch (RuntimeException e) {
+            log.warning("Falha ao atualizar contadores de tokens inválidos: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Long> getCounters() {
+
+        List<String> counterKeys = new ArrayList<>();
+
+        for (MessagingErrorCode errorCode : INVALID_TOKEN_ERROR_CODES)
+            counterKeys.add(errorCode.name());
+
+        counterKeys.add(CLEARED_COUNTER);
+
+        Map<String, Long> counters = new LinkedHashMap<>();
+
+        for (String counterKey : counterKeys)
+            counters.put(counterKey, 0L);
+
+        try {
+            for (Map.Entry<String, Object> counter : memcacheService.getAll(counterKeys).entrySet())
+                counters.put(counter.getKey(), (Long) counter.getValue());
+        } catch (RuntimeException e) {
+            log.warning("Falha ao ler contadores de tokens inválidos: " + e.getMessage());
+        }
+
+        return counters;
+    }
+}
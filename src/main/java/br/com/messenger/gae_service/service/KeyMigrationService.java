@@ -0,0 +1,83 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.KeyMigrationPage;
+import br.com.messenger.gae_service.repository.KeyMigrationRepository;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+import java.util.logging.Logger;
+
+@Service
+public class KeyMigrationService {
+
+    private static final Logger log = Logger.getLogger(KeyMigrationService.class.getName());
+
+    private static final String QUEUE_NAME = "migrations";
+    private static final String ROOT_KEYS_URL = "/tasks/migrations/root-keys";
+    private static final String NAMED_KEYS_URL = "/tasks/migrations/named-keys";
+
+    @Autowired
+    private KeyMigrationRepository keyMigrationRepository;
+
+    public String startRootKeysMigration(String kind, int batchSize) {
+        String jobId = "rootKeys-" + kind + "-" + UUID.randomUUID();
+        enqueue(ROOT_KEYS_URL, jobId, kind, batchSize, null, 1, 0, 0);
+        return jobId;
+    }
+
+    public String startNamedKeysMigration(String kind, int batchSize) {
+        String jobId = "namedKeys-" + kind + "-" + UUID.randomUUID();
+        enqueue(NAMED_KEYS_URL, jobId, kind, batchSize, null, 1, 0, 0);
+        return jobId;
+    }
+
+    public void migrateRootKeysPage(String jobId, String kind, int batchSize, String cursor, int page, int migrated, int collisions) {
+        KeyMigrationPage keyMigrationPage = keyMigrationRepository.migrateToRootKeys(kind, batchSize, cursor);
+        continueMigration(ROOT_KEYS_URL, jobId, kind, batchSize, keyMigrationPage, page, migrated, collisions);
+    }
+
+    public void migrateNamedKeysPage(String jobId, String kind, int batchSize, String cursor, int page, int migrated, int collisions) {
+        KeyMigrationPage keyMigrationPage = keyMigrationRepository.migrateToNamedKeys(kind, batchSize, cursor);
+        continueMigration(NAMED_KEYS_URL, jobId, kind, batchSize, keyMigrationPage, page, migrated, collisions);
+    }
+
+    private void continueMigration(String url, String jobId, String kind, int batchSize, KeyMigrationPage keyMigrationPage, int page, int migrated, int collisions) {
+
+        int totalMigrated = migrated + keyMigrationPage.getMigrated();
+        int totalCollisions = collisions + keyMigrationPage.getCollisions().size();
+
+        if (keyMigrationPage.getNextCursor() == null) {
+            log.info("Migração " + jobId + " do tipo " + kind + " concluída: " + totalMigrated + " entidades migradas, " + totalCollisions + " conflitos");
+            return;
+        }
+
+        log.info("Migração " + jobId + " do tipo " + kind + ": página " + page + " processada, " + totalMigrated + " entidades migradas, " + totalCollisions + " conflitos");
+        enqueue(url, jobId, kind, batchSize, keyMigrationPage.getNextCursor(), page + 1, totalMigrated, totalCollisions);
+    }
+
+    private void enqueue(String url, String jobId, String kind, int batchSize, String cursor, int page, int migrated, int collisions) {
+
+        TaskOptions task = TaskOptions.Builder.withUrl(url)
+                .taskName(jobId + "-" + page)
+                .method(TaskOptions.Method.POST)
+                .param("jobId", jobId)
+                .param("kind", kind)
+                .param("batchSize", String.valueOf(batchSize))
+                .param("page", String.valueOf(page))
+                .param("migrated", String.valueOf(migrated))
+                .param("collisions", String.valueOf(collisions));
+
+        if (cursor != null)
+            task.param("cursor", cursor);
+
+        try {
+            QueueFactory.getQueue(QUEUE_NAME).add(task);
+        } catch (TaskAlreadyExistsException e) {
+            log.fine("Página " + page + " da migração " + jobId + " já agendada");
+        }
+    }
+}
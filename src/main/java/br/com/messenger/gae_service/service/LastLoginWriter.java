@@ -0,0 +1,103 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.PendingLogin;
+import br.com.messenger.gae_service.model.User;
+import br.com.messenger.gae_service.repository.LoginWindowRepository;
+import br.com.messenger.gae_service.repository.UserRepository;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+@Service
+public class LastLoginWriter {
+
+    private static final Logger log = Logger.getLogger(LastLoginWriter.class.getName());
+
+    private static final String QUEUE_NAME = "logins";
+    private static final String FLUSH_URL = "/tasks/logins/flush";
+    private static final String WINDOW_PREFIX = "logins-";
+
+    private static final int FLUSH_BATCH_SIZE = 500;
+
+    private final long windowMillis;
+    private final long flushGraceMillis;
+    private final AtomicLong scheduledWindowId = new AtomicLong(-1);
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private LoginWindowRepository loginWindowRepository;
+
+    @Autowired
+    private LoginThrottle loginThrottle;
+
+    public LastLoginWriter(@Value("${messenger.login.write-window-millis:60000}") long windowMillis, @Value("${messenger.login.flush-grace-millis:5000}") long flushGraceMillis) {
+        this.windowMillis = windowMillis;
+        this.flushGraceMillis = flushGraceMillis;
+    }
+
+    public void recordLogin(User user) {
+
+        if (!loginThrottle.shouldRecordLogin(user.getEmail()))
+            return;
+
+        long now = Calendar.getInstance().getTimeInMillis();
+        long windowId = now / windowMillis;
+
+        try {
+            loginWindowRepository.saveLogin(windowId, user.getEmail(), new Date(now));
+        } catch (RuntimeException e) {
+            log.severe("Falha ao registrar último login do usuário " + user.getEmail() + ": " + e.getMessage());
+            return;
+        }
+
+        if (scheduledWindowId.get() == windowId)
+            return;
+
+        try {
+            QueueFactory.getQueue(QUEUE_NAME).add(TaskOptions.Builder.withUrl(FLUSH_URL)
+                    .taskName(WINDOW_PREFIX + windowId)
+                    .method(TaskOptions.Method.POST)
+                    .param("windowId", String.valueOf(windowId))
+                    .countdownMillis((windowId + 1) * windowMillis - now + flushGraceMillis));
+            scheduledWindowId.set(windowId);
+        } catch (TaskAlreadyExistsException e) {
+            scheduledWindowId.set(windowId);
+        } catch (RuntimeException e) {
+            log.severe("Falha ao agendar gravação dos últimos logins da janela " + windowId + ": " + e.getMessage());
+        }
+    }
+
+    public void flush(long windowId) {
+
+        AtomicInteger pending = new AtomicInteger();
+        AtomicInteger updated = new AtomicInteger();
+
+        loginWindowRepository.forEachPendingLoginBatch(windowId, FLUSH_BATCH_SIZE, pendingLogins -> {
+            updated.addAndGet(userRepository.updateLastLogins(latestByEmail(pendingLogins)));
+            loginWindowRepository.deletePendingLogins(pendingLogins);
+            pending.addAndGet(pendingLogins.size());
+        });
+
+        log.info("Janela de logins " + windowId + " processada: " + pending.get() + " logins pendentes, " + updated.get() + " usuários atualizados");
+    }
+
+    private Map<String, Date> latestByEmail(List<PendingLogin> pendingLogins) {
+
+        Map<String, Date> lastLoginsByEmail = new HashMap<>();
+
+        for (PendingLogin pendingLogin : pendingLogins)
+            lastLoginsByEmail.merge(pendingLogin.getEmail(), pendingLogin.getLastLogin(), (lastLogin, otherLastLogin) -> lastLogin.after(otherLastLogin) ? lastLogin : otherLastLogin);
+
+        return lastLoginsByEmail;
+    }
+}
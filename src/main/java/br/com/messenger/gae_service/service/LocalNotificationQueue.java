@@ -0,0 +1,86 @@
+package br.com.messenger.gae_service.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+@Service
+@ConditionalOnProperty(name = "messenger.outbox.queue", havingValue = "local")
+public class LocalNotificationQueue implements NotificationQueue {
+
+    private static final Logger log = Logger.getLogger(LocalNotificationQueue.class.getName());
+
+    private final ScheduledExecutorService scheduler;
+    private final Set<Long> scheduledPriceUpdateWindows = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    @Lazy
+    private NotificationOutboxWorker notificationOutboxWorker;
+
+    @Autowired
+    @Lazy
+    private NotificationDispatcher notificationDispatcher;
+
+    @Autowired
+    @Lazy
+    private PriceUpdateCoalescer priceUpdateCoalescer;
+
+    public LocalNotificationQueue(@Value("${messenger.dispatch.threads:4}") int threads) {
+        this.scheduler = Executors.newScheduledThreadPool(threads);
+    }
+
+    @Override
+    public void enqueue(String jobId, List<Long> notificationIds, long delayMillis) {
+        scheduler.schedule(() -> {
+            try {
+                notificationOutboxWorker.drain(jobId, notificationIds);
+            } catch (RuntimeException e) {
+                log.severe("Falha ao processar lote de notificações do job " + jobId + ": " + e.getMessage());
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void enqueueDigest(String jobId, List<Long> notificationIds, long delayMillis) {
+        scheduler.schedule(() -> {
+            try {
+                notificationDispatcher.dispatchDigests(jobId, notificationIds);
+            } catch (RuntimeException e) {
+                log.severe("Falha ao processar resumos de notificações do job " + jobId + ": " + e.getMessage());
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void enqueuePriceUpdateFlush(long windowId, long delayMillis) {
+
+        if (!scheduledPriceUpdateWindows.add(windowId))
+            return;
+
+        scheduler.schedule(() -> {
+            try {
+                priceUpdateCoalescer.flush(windowId);
+            } catch (RuntimeException e) {
+                log.severe("Falha ao processar janela de atualizações de preço " + windowId + ": " + e.getMessage());
+            } finally {
+                scheduledPriceUpdateWindows.remove(windowId);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,34 @@
+package br.com.messenger.gae_service.service;
+
+import com.google.appengine.api.memcache.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.logging.Logger;
+
+@Service
+public class LoginThrottle {
+
+    private static final Logger log = Logger.getLogger(LoginThrottle.class.getName());
+
+    private static final String NAMESPACE = "loginThrottle";
+
+    private final MemcacheService memcacheService;
+    private final int windowMillis;
+
+    public LoginThrottle(@Value("${messenger.login.throttle-window-seconds:30}") int windowSeconds) {
+        this.windowMillis = windowSeconds * 1000;
+        this.memcacheService = MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+        this.memcacheService.setErrorHandler(ErrorHandlers.getStrict());
+    }
+
+    public boolean shouldRecordLogin(String email) {
+        try {
+            return memcacheService.put(email, new Date(), Expiration.byDeltaMillis(windowMillis), MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        } catch (RuntimeException e) {
+            log.warning("Memcache indisponível para o controle de login: " + e.getMessage());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.Notification;
+import br.com.messenger.gae_service.util.NotificationStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+@Service
+public class NotificationDigester {
+
+    private static final Logger log = Logger.getLogger(NotificationDigester.class.getName());
+
+    private final int maxMessages;
+
+    @Autowired
+    private NotificationRateLimiter notificationRateLimiter;
+
+    @Autowired
+    private NotificationRenderer notificationRenderer;
+
+    public NotificationDigester(@Value("${messenger.rate-limit.digest-max-messages:20}") int maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    public List<Notification> filter(List<Notification> notifications, List<Notification> heldNotifications) {
+
+        Set<String> cpfs = new HashSet<>();
+
+        for (Notification notification : notifications) {
+            if (notification.getCpf() != null)
+                cpfs.add(notification.getCpf());
+        }
+
+        if (cpfs.isEmpty())
+            return notifications;
+
+        Set<String> acquiredCpfs = notificationRateLimiter.acquire(cpfs);
+        List<Notification> allowedNotifications = new ArrayList<>();
+
+        for (Notification notification : notifications) {
+            String cpf = notification.getCpf();
+
+            if (cpf == null || acquiredCpfs.remove(cpf))
+                allowedNotifications.add(notification);
+            else
+                heldNotifications.add(notification);
+        }
+
+        if (!heldNotifications.isEmpty())
+            log.info(heldNotifications.size() + " notificações acima do limite agrupadas em resumos");
+
+        return allowedNotifications;
+    }
+
+    public List<Notification> digest(List<Notification> heldNotifications) {
+
+        Map<String, List<Notification>> heldNotificationsByCpf = new LinkedHashMap<>();
+
+        for (Notification notification : heldNotifications)
+            heldNotificationsByCpf.computeIfAbsent(notification.getCpf(), key -> new ArrayList<>()).add(notification);
+
+        Set<String> acquiredCpfs = notificationRateLimiter.acquire(heldNotificationsByCpf.keySet());
+        List<Notification> digests = new ArrayList<>();
+
+        for (Map.Entry<String, List<Notification>> entry : heldNotificationsByCpf.entrySet()) {
+
+            if (!acquiredCpfs.contains(entry.getKey()))
+                continue;
+
+            List<Notification> cpfNotifications = entry.getValue();
+
+            for (Notification notification : cpfNotifications)
+                notification.setStatus(NotificationStatus.DIGESTED);
+
+            String fcmRegId = cpfNotifications.get(cpfNotifications.size() - 1).getFcmRegId();
+            digests.add(new Notification(entry.getKey(), fcmRegId, toSalesMessage(cpfNotifications)));
+        }
+
+        return digests;
+    }
+
+    private String toSalesMessage(List<Notification> notifications) {
+
+        if (notifications.size() == 1)
+            return notifications.get(0).getSalesMessage();
+
+        List<String> salesMessages = new ArrayList<>();
+
+        for (Notification notification : notifications.subList(0, Math.min(maxMessages, notifications.size())))
+            salesMessages.add(notification.getSalesMessage());
+
+        return notificationRenderer.renderDigest(notificationRenderer.getDefaultLocale(), notifications.size(), salesMessages);
+    }
+}
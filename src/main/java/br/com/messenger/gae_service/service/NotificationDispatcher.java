@@ -0,0 +1,138 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.Notification;
+import br.com.messenger.gae_service.model.NotificationJob;
+import br.com.messenger.gae_service.model.NotificationResultPage;
+import br.com.messenger.gae_service.repository.NotificationJobRepository;
+import br.com.messenger.gae_service.repository.NotificationOutboxRepository;
+import br.com.messenger.gae_service.util.JobStatus;
+import br.com.messenger.gae_service.util.NotificationStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.logging.Logger;
+
+@Service
+public class NotificationDispatcher {
+
+    private static final Logger log = Logger.getLogger(NotificationDispatcher.class.getName());
+
+    private static final int FCM_BATCH_SIZE = 500;
+
+    private final long digestIntervalMillis;
+
+    @Autowired
+    private NotificationJobRepository notificationJobRepository;
+
+    @Autowired
+    private NotificationOutboxRepository notificationOutboxRepository;
+
+    @Autowired
+    private NotificationQueue notificationQueue;
+
+    @Autowired
+    private NotificationDigester notificationDigester;
+
+    public NotificationDispatcher(@Value("${messenger.rate-limit.digest-interval-millis:60000}") long digestIntervalMillis) {
+        this.digestIntervalMillis = digestIntervalMillis;
+    }
+
+    public NotificationJob createJob() {
+        NotificationJob job = newJob(UUID.randomUUID().toString());
+        notificationJobRepository.saveJob(job);
+        return job;
+    }
+
+    public NotificationJob getOrCreateJob(String jobId) {
+        return notificationJobRepository.saveJobIfAbsent(newJob(jobId));
+    }
+
+    private NotificationJob newJob(String jobId) {
+        NotificationJob job = new NotificationJob();
+        job.setJobId(jobId);
+        job.setCreatedAt(Calendar.getInstance().getTime());
+        job.setStatus(JobStatus.QUEUED);
+        return job;
+    }
+
+    public Optional<NotificationJob> getJob(String jobId) {
+        return notificationJobRepository.getJob(jobId);
+    }
+
+    public NotificationResultPage getResults(String jobId, @Nullable NotificationStatus status, int limit, @Nullable String cursor) {
+        return notificationOutboxRepository.getNotificationResults(jobId, status, limit, cursor);
+    }
+
+    public void markDone(NotificationJob job) {
+        job.setStatus(JobStatus.DONE);
+        notificationJobRepository.saveJob(job);
+    }
+
+    public void dispatch(NotificationJob job, List<Notification> notifications) {
+
+        List<Notification> heldNotifications = new ArrayList<>();
+        List<Notification> allowedNotifications = notificationDigester.filter(notifications, heldNotifications);
+        job.addDigested(heldNotifications.size());
+        enqueue(job, allowedNotifications);
+        hold(job.getJobId(), heldNotifications);
+    }
+
+    public void dispatchDigests(String jobId, List<Long> notificationIds) {
+
+        List<Notification> heldNotifications = notificationOutboxRepository.getNotifications(notificationIds, NotificationStatus.DIGEST_PENDING);
+
+        if (heldNotifications.isEmpty())
+            return;
+
+        List<Notification> digests = notificationDigester.digest(heldNotifications);
+        List<Notification> digestedNotifications = new ArrayList<>();
+        List<Long> waitingIds = new ArrayList<>();
+
+        for (Notification notification : heldNotifications) {
+            if (notification.getStatus() == NotificationStatus.DIGESTED)
+                digestedNotifications.add(notification);
+            else
+                waitingIds.add(notification.getNotificationId());
+        }
+
+        if (!digests.isEmpty()) {
+            NotificationJob job = createJob();
+            job.addTotal(digests.size());
+            enqueue(job, digests);
+            notificationOutboxRepository.updateNotifications(digestedNotifications);
+            log.info("Job " + job.getJobId() + ": " + digests.size() + " resumos de " + digestedNotifications.size() + " notificações do job " + jobId + " enviados");
+        }
+
+        if (!waitingIds.isEmpty())
+            notificationQueue.enqueueDigest(jobId, waitingIds, digestIntervalMillis);
+    }
+
+    private void hold(String jobId, List<Notification> heldNotifications) {
+
+        if (heldNotifications.isEmpty())
+            return;
+
+        List<Long> notificationIds = notificationOutboxRepository.saveNotifications(jobId, heldNotifications, NotificationStatus.DIGEST_PENDING);
+
+        for (int start = 0; start < notificationIds.size(); start += FCM_BATCH_SIZE)
+            notificationQueue.enqueueDigest(jobId, new ArrayList<>(notificationIds.subList(start, Math.min(start + FCM_BATCH_SIZE, notificationIds.size()))), digestIntervalMillis);
+
+        log.info("Job " + jobId + ": " + notificationIds.size() + " notificações aguardando resumo");
+    }
+
+    private void enqueue(NotificationJob job, List<Notification> notifications) {
+
+        job.setStatus(job.isComplete() ? JobStatus.DONE : JobStatus.RUNNING);
+        notificationJobRepository.saveJob(job);
+
+        List<Long> notificationIds = notificationOutboxRepository.saveNotifications(job.getJobId(), notifications);
+
+        for (int start = 0; start < notificationIds.size(); start += FCM_BATCH_SIZE)
+            notificationQueue.enqueue(job.getJobId(), new ArrayList<>(notificationIds.subList(start, Math.min(start + FCM_BATCH_SIZE, notificationIds.size()))), 0);
+
+        log.info("Job " + job.getJobId() + ": " + notificationIds.size() + " notificações enfileiradas");
+    }
+}
@@ -0,0 +1,151 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.Notification;
+import br.com.messenger.gae_service.repository.NotificationJobRepository;
+import br.com.messenger.gae_service.repository.NotificationOutboxRepository;
+import br.com.messenger.gae_service.util.NotificationStatus;
+import com.google.firebase.messaging.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+@Service
+public class NotificationOutboxWorker {
+
+    private static final Logger log = Logger.getLogger(NotificationOutboxWorker.class.getName());
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    @Autowired
+    private NotificationOutboxRepository notificationOutboxRepository;
+
+    @Autowired
+    private NotificationJobRepository notificationJobRepository;
+
+    @Autowired
+    private NotificationQueue notificationQueue;
+
+    @Autowired
+    private InvalidTokenPruner invalidTokenPruner;
+
+    public NotificationOutboxWorker(@Value("${messenger.outbox.max-attempts:5}") int maxAttempts,
+                                    @Value("${messenger.outbox.base-backoff-millis:1000}") long baseBackoffMillis,
+                                    @Value("${messenger.outbox.max-backoff-millis:60000}") long maxBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public void drain(String jobId, List<Long> notificationIds) {
+
+        List<Notification> notifications = notificationOutboxRepository.getPendingNotifications(notificationIds);
+
+        if (notifications.isEmpty())
+            return;
+
+        List<Message> messages = new ArrayList<>();
+
+        for (Notification notification : notifications)
+            messages.add(toMessage(notification));
+
+        List<SendResponse> responses = null;
+        FirebaseMessagingException batchException = null;
+
+        try {
+            responses = FirebaseMessaging.getInstance().sendAll(messages).getResponses();
+        } catch (FirebaseMessagingException e) {
+            batchException = e;
+        }
+
+        int sent = 0;
+        int failed = 0;
+        int attempts = 0;
+        List<Long> retryIds = new ArrayList<>();
+        Map<String, String> invalidTokensByCpf = new HashMap<>();
+        Map<MessagingErrorCode, Integer> invalidTokenCounts = new EnumMap<>(MessagingErrorCode.class);
+
+        for (int i = 0; i < notifications.size(); i++) {
+            Notification notification = notifications.get(i);
+            FirebaseMessagingException exception = (responses != null) ? responses.get(i).getException() : batchException;
+
+            notification.setAttempts(notification.getAttempts() + 1);
+            attempts = Math.max(attempts, notification.getAttempts());
+
+            if (exception == null) {
+                notification.setStatus(NotificationStatus.SENT);
+                notification.setLastError(null);
+                sent++;
+            } else {
+                notification.setLastError(truncate(exception.getMessagingErrorCode() + ": " + exception.getMessage()));
+
+                if (responses != null && notification.getTopic() == null && invalidTokenPruner.isInvalidToken(exception)) {
+                    notification.setStatus(NotificationStatus.FAILED);
+
+                    if (notification.getCpf() != null)
+                        invalidTokensByCpf.put(notification.getCpf(), notification.getFcmRegId());
+
+                    invalidTokenCounts.merge(exception.getMessagingErrorCode(), 1, Integer::sum);
+                    failed++;
+                } else if (isTransient(exception) && notification.getAttempts() < maxAttempts) {
+                    retryIds.add(notification.getNotificationId());
+                } else {
+                    notification.setStatus(NotificationStatus.FAILED);
+                    failed++;
+                }
+            }
+        }
+
+        notificationOutboxRepository.updateNotifications(notifications);
+        notificationJobRepository.addResults(jobId, sent, failed);
+        invalidTokenPruner.prune(invalidTokensByCpf, invalidTokenCounts);
+
+        log.info("Lote do job " + jobId + " processado: " + sent + " enviadas, " + failed + " com falha, " + retryIds.size() + " a reenviar");
+
+        if (!retryIds.isEmpty())
+            notificationQueue.enqueue(jobId, retryIds, getBackoffMillis(attempts));
+    }
+
+    private boolean isTransient(FirebaseMessagingException exception) {
+
+        MessagingErrorCode errorCode = exception.getMessagingErrorCode();
+
+        if (errorCode == null)
+            return true;
+
+        switch (errorCode) {
+            case INTERNAL:
+            case QUOTA_EXCEEDED:
+            case UNAVAILABLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private long getBackoffMillis(int attempts) {
+        return Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempts - 1, 20));
+    }
+
+    private String truncate(String error) {
+        return (error.length() > MAX_ERROR_LENGTH) ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+
+    private Message toMessage(Notification notification) {
+
+        Message.Builder message = Message.builder().putData("salesMessage", notification.getSalesMessage());
+
+        if (notification.getTopic() != null)
+            message.setTopic(notification.getTopic());
+        else
+            message.setToken(notification.getFcmRegId());
+
+        return message.build();
+    }
+}
@@ -0,0 +1,12 @@
+package br.com.messenger.gae_service.service;
+
+import java.util.List;
+
+public interface NotificationQueue {
+
+    void enqueue(String jobId, List<Long> notificationIds, long delayMillis);
+
+    void enqueueDigest(String jobId, List<Long> notificationIds, long delayMillis);
+
+    void enqueuePriceUpdateFlush(long windowId, long delayMillis);
+}
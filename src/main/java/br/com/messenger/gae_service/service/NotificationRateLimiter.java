@@ -0,0 +1,104 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.cache.LocalCache;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.logging.Logger;
+
+@Service
+public class NotificationRateLimiter {
+
+    private static final Logger log = Logger.getLogger(NotificationRateLimiter.class.getName());
+
+    private static final String NAMESPACE = "notificationRateLimit";
+
+    private final MemcacheService memcacheService;
+    private final LocalCache<String, TokenBucket> localBuckets;
+    private final int capacity;
+    private final double tokensPerMilli;
+    private final int bucketTtlMillis;
+
+    public NotificationRateLimiter(@Value("${messenger.rate-limit.capacity:5}") int capacity,
+                                   @Value("${messenger.rate-limit.refill-per-minute:5}") int refillPerMinute,
+                                   @Value("${messenger.rate-limit.local-size:10000}") int localSize) {
+        this.capacity = capacity;
+        this.tokensPerMilli = refillPerMinute / 60000.0;
+        this.bucketTtlMillis = (int) Math.ceil(capacity / tokensPerMilli);
+        this.localBuckets = new LocalCache<>(localSize, bucketTtlMillis);
+        this.memcacheService = MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+    }
+
+    public Set<String> acquire(Collection<String> cpfs) {
+
+        List<String> missingCpfs = new ArrayList<>();
+
+        for (String cpf : cpfs) {
+            if (localBuckets.get(cpf) == null)
+                missingCpfs.add(cpf);
+        }
+
+        Map<String, Object> sharedBuckets = Collections.emptyMap();
+
+        if (!missingCpfs.isEmpty()) {
+            try {
+                sharedBuckets = memcacheService.getAll(missingCpfs);
+            } catch (RuntimeException e) {
+                log.warning("Falha ao ler limites de notificação do memcache: " + e.getMessage());
+            }
+        }
+
+        Set<String> acquiredCpfs = new HashSet<>();
+        Map<String, TokenBucket> changedBuckets = new HashMap<>();
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+
+            for (String cpf : cpfs) {
+                TokenBucket bucket = localBuckets.get(cpf);
+
+                if (bucket == null)
+                    bucket = (sharedBuckets.containsKey(cpf)) ? (TokenBucket) sharedBuckets.get(cpf) : new TokenBucket(capacity, now);
+
+                bucket.refill(now, capacity, tokensPerMilli);
+
+                if (bucket.tokens >= 1) {
+                    bucket.tokens--;
+                    acquiredCpfs.add(cpf);
+                }
+
+                localBuckets.put(cpf, bucket);
+                changedBuckets.put(cpf, new TokenBucket(bucket.tokens, bucket.refilledAt));
+            }
+        }
+
+        try {
+            memcacheService.putAll(changedBuckets, Expiration.byDeltaMillis(bucketTtlMillis));
+        } catch (RuntimeException e) {
+            log.warning("Falha ao gravar limites de notificação no memcache: " + e.getMessage());
+        }
+
+        return acquiredCpfs;
+    }
+
+    private static class TokenBucket implements Serializable {
+
+        private double tokens;
+        private long refilledAt;
+
+        private TokenBucket(double tokens, long refilledAt) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+        }
+
+        private void refill(long now, int capacity, double tokensPerMilli) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerMilli);
+            refilledAt = now;
+        }
+    }
+}
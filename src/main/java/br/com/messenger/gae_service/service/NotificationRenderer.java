@@ -0,0 +1,251 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.Order;
+import br.com.messenger.gae_service.model.PriceUpdate;
+import br.com.messenger.gae_service.model.ProductOfInterest;
+import br.com.messenger.gae_service.model.User;
+import br.com.messenger.gae_service.util.NotificationTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.util.*;
+import java.util.logging.Logger;
+
+@Service
+public class NotificationRenderer {
+
+    private static final Logger log = Logger.getLogger(NotificationRenderer.class.getName());
+
+    private static final String TEMPLATES_PATH = "/templates/notifications";
+
+    private static final String PRICE_UPDATE = "priceUpdate";
+    private static final String PRICE_UPDATE_TOPIC = "priceUpdate.topic";
+    private static final String PRICE_UPDATES_HEADER = "priceUpdates.header";
+    private static final String PRICE_UPDATES_ITEM = "priceUpdates.item";
+    private static final String PRICE_UPDATES_FOOTER = "priceUpdates.footer";
+    private static final String ORDER = "order";
+    private static final String DIGEST_HEADER = "digest.header";
+    private static final String DIGEST_ITEM = "digest.item";
+    private static final String DIGEST_FOOTER = "digest.footer";
+
+    private static final List<String> USER_PARAMETERS = Arrays.asList("email", "cpf");
+    private static final List<String> PRICE_UPDATE_PARAMETERS = Arrays.asList("email", "cpf", "salesProviderProductId", "newProductPrice", "minPriceAlert");
+    private static final List<String> PRICE_UPDATE_TOPIC_PARAMETERS = Arrays.asList("salesProviderProductId", "newProductPrice");
+    private static final List<String> ORDER_PARAMETERS = Arrays.asList("email", "cpf", "salesProviderUserId", "orderId", "notification", "newOrderStatus");
+    private static final List<String> DIGEST_PARAMETERS = Arrays.asList("count", "salesMessage");
+    private static final List<String> FOOTER_PARAMETERS = Collections.singletonList("count");
+
+    private static final Map<String, List<String>> TEMPLATE_PARAMETERS = new HashMap<>();
+
+    static {
+        TEMPLATE_PARAMETERS.put(PRICE_UPDATE, PRICE_UPDATE_PARAMETERS);
+        TEMPLATE_PARAMETERS.put(PRICE_UPDATE_TOPIC, PRICE_UPDATE_TOPIC_PARAMETERS);
+        TEMPLATE_PARAMETERS.put(PRICE_UPDATES_HEADER, USER_PARAMETERS);
+        TEMPLATE_PARAMETERS.put(PRICE_UPDATES_ITEM, PRICE_UPDATE_PARAMETERS);
+        TEMPLATE_PARAMETERS.put(PRICE_UPDATES_FOOTER, FOOTER_PARAMETERS);
+        TEMPLATE_PARAMETERS.put(ORDER, ORDER_PARAMETERS);
+        TEMPLATE_PARAMETERS.put(DIGEST_HEADER, DIGEST_PARAMETERS);
+        TEMPLATE_PARAMETERS.put(DIGEST_ITEM, DIGEST_PARAMETERS);
+        TEMPLATE_PARAMETERS.put(DIGEST_FOOTER, FOOTER_PARAMETERS);
+    }
+
+    private final Locale defaultLocale;
+    private final int maxPayloadBytes;
+    private final Map<String, Map<String, NotificationTemplate>> templatesByLanguage = new HashMap<>();
+    private final Map<String, ThreadLocal<NumberFormat>> priceFormatsByLanguage = new HashMap<>();
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    public NotificationRenderer(@Value("${messenger.notification.locale:pt-BR}") String defaultLocale,
+                                @Value("${messenger.notification.locales:pt-BR,en}") String[] locales,
+                                @Value("${messenger.notification.max-payload-bytes:4000}") int maxPayloadBytes) throws IOException {
+        this.defaultLocale = Locale.forLanguageTag(defaultLocale);
+        this.maxPayloadBytes = maxPayloadBytes;
+
+        Map<String, NotificationTemplate> defaultTemplates = compile(TEMPLATES_PATH + ".properties");
+
+        for (String languageTag : locales) {
+            Locale locale = Locale.forLanguageTag(languageTag);
+            String localePath = TEMPLATES_PATH + "_" + locale.getLanguage() + ".properties";
+            Map<String, NotificationTemplate> templates = new HashMap<>(defaultTemplates);
+
+            if (getClass().getResource(localePath) != null)
+                templates.putAll(compile(localePath));
+
+            templatesByLanguage.put(locale.getLanguage(), templates);
+            priceFormatsByLanguage.put(locale.getLanguage(), ThreadLocal.withInitial(() -> createPriceFormat(locale)));
+        }
+
+        if (!templatesByLanguage.containsKey(this.defaultLocale.getLanguage())) {
+            templatesByLanguage.put(this.defaultLocale.getLanguage(), defaultTemplates);
+            priceFormatsByLanguage.put(this.defaultLocale.getLanguage(), ThreadLocal.withInitial(() -> createPriceFormat(this.defaultLocale)));
+        }
+
+        log.info("Templates de notificação compilados para os idiomas: " + templatesByLanguage.keySet());
+    }
+
+    public Locale getDefaultLocale() {
+        return defaultLocale;
+    }
+
+    public String renderPriceUpdate(Locale locale, User user, ProductOfInterest productOfInterest, PriceUpdate priceUpdate) {
+        StringBuilder buffer = getBuffer();
+        getTemplate(locale, PRICE_UPDATE).render(buffer, getPriceFormat(locale), user.getEmail(), user.getCpf(), productOfInterest.getSalesProviderProductId(), priceUpdate.getNewProductPrice(), productOfInterest.getMinPriceAlert());
+        return buffer.toString();
+    }
+
+    public String renderPriceUpdateTopic(Locale locale, PriceUpdate priceUpdate) {
+        StringBuilder buffer = getBuffer();
+        getTemplate(locale, PRICE_UPDATE_TOPIC).render(buffer, getPriceFormat(locale), priceUpdate.getProductId(), priceUpdate.getNewProductPrice());
+        return buffer.toString();
+    }
+
+    public String renderPriceUpdates(Locale locale, User user, List<ProductOfInterest> productsOfInterest, Map<Long, PriceUpdate> priceUpdatesByProductId) {
+
+        if (productsOfInterest.size() == 1) {
+            ProductOfInterest productOfInterest = productsOfInterest.get(0);
+            return renderPriceUpdate(locale, user, productOfInterest, priceUpdatesByProductId.get(productOfInterest.getSalesProviderProductId()));
+        }
+
+        StringBuilder buffer = getBuffer();
+        NumberFormat priceFormat = getPriceFormat(locale);
+        List<Object[]> items = new ArrayList<>();
+
+        getTemplate(locale, PRICE_UPDATES_HEADER).render(buffer, priceFormat, user.getEmail(), user.getCpf());
+
+        for (ProductOfInterest productOfInterest : productsOfInterest) {
+            PriceUpdate priceUpdate = priceUpdatesByProductId.get(productOfInterest.getSalesProviderProductId());
+            items.add(new Object[]{user.getEmail(), user.getCpf(), productOfInterest.getSalesProviderProductId(), priceUpdate.getNewProductPrice(), productOfInterest.getMinPriceAlert()});
+        }
+
+        renderItems(buffer, locale, priceFormat, PRICE_UPDATES_ITEM, PRICE_UPDATES_FOOTER, items, items.size());
+        return buffer.toString();
+    }
+
+    public String renderOrder(Locale locale, User user, Order order) {
+        StringBuilder buffer = getBuffer();
+        getTemplate(locale, ORDER).render(buffer, getPriceFormat(locale), user.getEmail(), user.getCpf(), user.getSalesProviderUserId(), order.getOrderId(), order.getNotification(), order.getNewOrderStatus());
+        return buffer.toString();
+    }
+
+    public String renderDigest(Locale locale, int count, List<String> salesMessages) {
+        StringBuilder buffer = getBuffer();
+        NumberFormat priceFormat = getPriceFormat(locale);
+        List<Object[]> items = new ArrayList<>();
+
+        getTemplate(locale, DIGEST_HEADER).render(buffer, priceFormat, count, null);
+
+        for (String salesMessage : salesMessages)
+            items.add(new Object[]{count, salesMessage});
+
+        renderItems(buffer, locale, priceFormat, DIGEST_ITEM, DIGEST_FOOTER, items, count);
+        return buffer.toString();
+    }
+
+    private void renderItems(StringBuilder buffer, Locale locale, NumberFormat priceFormat, String itemTemplateName, String footerTemplateName, List<Object[]> items, int total) {
+
+        NotificationTemplate itemTemplate = getTemplate(locale, itemTemplateName);
+        NotificationTemplate footerTemplate = getTemplate(locale, footerTemplateName);
+
+        StringBuilder footer = new StringBuilder();
+        footerTemplate.render(footer, priceFormat, total);
+        int footerBytes = utf8Length(footer, 0);
+
+        int payloadBytes = utf8Length(buffer, 0);
+        int rendered = 0;
+
+        for (Object[] item : items) {
+            int itemStart = buffer.length();
+            itemTemplate.render(buffer, priceFormat, item);
+
+            int itemBytes = utf8Length(buffer, itemStart);
+            boolean needsFooter = rendered + 1 < total;
+
+            if (payloadBytes + itemBytes + (needsFooter ? footerBytes : 0) > maxPayloadBytes) {
+                buffer.setLength(itemStart);
+                break;
+            }
+
+            payloadBytes += itemBytes;
+            rendered++;
+        }
+
+        if (rendered < total)
+            footerTemplate.render(buffer, priceFormat, total - rendered);
+    }
+
+    private static int utf8Length(CharSequence text, int start) {
+
+        int length = 0;
+
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c < 0x80)
+                length++;
+            else if (c < 0x800)
+                length += 2;
+            else if (Character.isHighSurrogate(c))
+                length += 4;
+            else if (!Character.isLowSurrogate(c))
+                length += 3;
+        }
+
+        return length;
+    }
+
+    private StringBuilder getBuffer() {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    private NotificationTemplate getTemplate(Locale locale, String name) {
+        Map<String, NotificationTemplate> templates = templatesByLanguage.get(locale.getLanguage());
+
+        if (templates == null)
+            templates = templatesByLanguage.get(defaultLocale.getLanguage());
+
+        return templates.get(name);
+    }
+
+    private NumberFormat getPriceFormat(Locale locale) {
+        ThreadLocal<NumberFormat> priceFormat = priceFormatsByLanguage.get(locale.getLanguage());
+
+        if (priceFormat == null)
+            priceFormat = priceFormatsByLanguage.get(defaultLocale.getLanguage());
+
+        return priceFormat.get();
+    }
+
+    private NumberFormat createPriceFormat(Locale locale) {
+        NumberFormat priceFormat = NumberFormat.getNumberInstance(locale);
+        priceFormat.setMinimumFractionDigits(2);
+        priceFormat.setMaximumFractionDigits(2);
+        return priceFormat;
+    }
+
+    private Map<String, NotificationTemplate> compile(String path) throws IOException {
+
+        Properties properties = new Properties();
+
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream(path), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        Map<String, NotificationTemplate> templates = new HashMap<>();
+
+        for (String name : properties.stringPropertyNames()) {
+            List<String> parameterNames = TEMPLATE_PARAMETERS.get(name);
+
+            if (parameterNames != null)
+                templates.put(name, NotificationTemplate.compile(properties.getProperty(name), parameterNames));
+        }
+
+        return templates;
+    }
+}
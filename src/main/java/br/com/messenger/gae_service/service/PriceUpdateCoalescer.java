@@ -0,0 +1,80 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.NotificationJob;
+import br.com.messenger.gae_service.model.PriceUpdate;
+import br.com.messenger.gae_service.repository.PriceUpdateWindowRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+@Service
+public class PriceUpdateCoalescer {
+
+    private static final Logger log = Logger.getLogger(PriceUpdateCoalescer.class.getName());
+
+    private static final String WINDOW_PREFIX = "priceUpdates-";
+
+    private final long windowMillis;
+    private final long flushGraceMillis;
+
+    @Autowired
+    private PriceUpdateService priceUpdateService;
+
+    @Autowired
+    private NotificationDispatcher notificationDispatcher;
+
+    @Autowired
+    private PriceUpdateWindowRepository priceUpdateWindowRepository;
+
+    @Autowired
+    private NotificationQueue notificationQueue;
+
+    public PriceUpdateCoalescer(@Value("${messenger.price-update.coalesce-window-millis:5000}") long windowMillis, @Value("${messenger.price-update.flush-grace-millis:2000}") long flushGraceMillis) {
+        this.windowMillis = windowMillis;
+        this.flushGraceMillis = flushGraceMillis;
+    }
+
+    public boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    public NotificationJob submit(Collection<PriceUpdate> priceUpdates) {
+
+        long now = Calendar.getInstance().getTimeInMillis();
+        long windowId = now / windowMillis;
+
+        NotificationJob job = notificationDispatcher.getOrCreateJob(WINDOW_PREFIX + windowId);
+        priceUpdateWindowRepository.savePriceUpdates(windowId, latestByProductId(priceUpdates));
+
+        notificationQueue.enqueuePriceUpdateFlush(windowId, (windowId + 1) * windowMillis - now + flushGraceMillis);
+
+        return job;
+    }
+
+    public void flush(long windowId) {
+
+        List<PriceUpdate> priceUpdates = priceUpdateWindowRepository.getPriceUpdates(windowId);
+
+        if (priceUpdates.isEmpty())
+            return;
+
+        NotificationJob job = notificationDispatcher.getOrCreateJob(WINDOW_PREFIX + windowId);
+        log.info("Enviando " + priceUpdates.size() + " atualizações de preço agrupadas no job " + job.getJobId());
+
+        priceUpdateService.notifyPriceUpdates(priceUpdates, job);
+        priceUpdateWindowRepository.deletePriceUpdates(windowId, priceUpdates);
+    }
+
+    private Collection<PriceUpdate> latestByProductId(Collection<PriceUpdate> priceUpdates) {
+
+        Map<Long, PriceUpdate> priceUpdatesByProductId = new LinkedHashMap<>();
+
+        for (PriceUpdate priceUpdate : priceUpdates)
+            priceUpdatesByProductId.put(priceUpdate.getProductId(), priceUpdate);
+
+        return priceUpdatesByProductId.values();
+    }
+}
@@ -0,0 +1,176 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.*;
+import br.com.messenger.gae_service.repository.LastNotifiedPriceRepository;
+import br.com.messenger.gae_service.repository.ProductOfInterestRepository;
+import br.com.messenger.gae_service.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+@Service
+public class PriceUpdateService {
+
+    private static final Logger log = Logger.getLogger(PriceUpdateService.class.getName());
+
+    private static final String TOPIC_KEY_PREFIX = "topic:";
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductOfInterestRepository productOfInterestRepository;
+
+    @Autowired
+    private NotificationDispatcher notificationDispatcher;
+
+    @Autowired
+    private LastNotifiedPriceRepository lastNotifiedPriceRepository;
+
+    @Autowired
+    private NotificationRenderer notificationRenderer;
+
+    @Autowired
+    private ProductTopicService productTopicService;
+
+    public Optional<NotificationJob> notifyPriceUpdates(Collection<PriceUpdate> priceUpdates) {
+
+        Map<Long, PriceUpdate> priceUpdatesByProductId = latestByProductId(priceUpdates);
+        List<Notification> topicNotifications = new ArrayList<>();
+        Map<String, Double> notifiedTopicPrices = new HashMap<>();
+        Map<String, List<ProductOfInterest>> productsOfInterestByCpf = getProductsOfInterestToNotify(priceUpdatesByProductId, topicNotifications, notifiedTopicPrices);
+
+        if (productsOfInterestByCpf.isEmpty() && topicNotifications.isEmpty())
+            return Optional.empty();
+
+        NotificationJob job = notificationDispatcher.createJob();
+        fanOut(job, productsOfInterestByCpf, priceUpdatesByProductId, topicNotifications, notifiedTopicPrices);
+        return Optional.of(job);
+    }
+
+    public void notifyPriceUpdates(Collection<PriceUpdate> priceUpdates, NotificationJob job) {
+        Map<Long, PriceUpdate> priceUpdatesByProductId = latestByProductId(priceUpdates);
+        List<Notification> topicNotifications = new ArrayList<>();
+        Map<String, Double> notifiedTopicPrices = new HashMap<>();
+        fanOut(job, getProductsOfInterestToNotify(priceUpdatesByProductId, topicNotifications, notifiedTopicPrices), priceUpdatesByProductId, topicNotifications, notifiedTopicPrices);
+    }
+
+    private Map<Long, PriceUpdate> latestByProductId(Collection<PriceUpdate> priceUpdates) {
+
+        Map<Long, PriceUpdate> priceUpdatesByProductId = new LinkedHashMap<>();
+
+        for (PriceUpdate priceUpdate : priceUpdates)
+            priceUpdatesByProductId.put(priceUpdate.getProductId(), priceUpdate);
+
+        return priceUpdatesByProductId;
+    }
+
+    private Map<String, List<ProductOfInterest>> getProductsOfInterestToNotify(Map<Long, PriceUpdate> priceUpdatesByProductId, List<Notification> topicNotifications, Map<String, Double> notifiedTopicPrices) {
+
+        List<ProductOfInterest> matchedProductsOfInterest = new ArrayList<>();
+
+        for (PriceUpdate priceUpdate : priceUpdatesByProductId.values()) {
+            List<ProductOfInterest> productsOfInterest = productOfInterestRepository.getProductsOfInterestBySalesProviderProductIdAndMinPriceAlert(priceUpdate.getProductId(), priceUpdate.getNewProductPrice());
+
+            if (productTopicService.shouldUseTopics(productsOfInterest.size()))
+                productsOfInterest = addTopicNotifications(priceUpdate, productsOfInterest, topicNotifications, notifiedTopicPrices);
+
+            matchedProductsOfInterest.addAll(productsOfInterest);
+        }
+
+        List<String> lastNotifiedPriceKeys = new ArrayList<>();
+
+        for (ProductOfInterest productOfInterest : matchedProductsOfInterest)
+            lastNotifiedPriceKeys.add(getLastNotifiedPriceKey(productOfInterest));
+
+        Map<String, Double> lastNotifiedPrices = lastNotifiedPriceRepository.getAll(lastNotifiedPriceKeys);
+        Map<String, List<ProductOfInterest>> productsOfInterestByCpf = new LinkedHashMap<>();
+
+        for (ProductOfInterest productOfInterest : matchedProductsOfInterest) {
+            Double lastNotifiedPrice = lastNotifiedPrices.get(getLastNotifiedPriceKey(productOfInterest));
+            double newProductPrice = priceUpdatesByProductId.get(productOfInterest.getSalesProviderProductId()).getNewProductPrice();
+
+            if (lastNotifiedPrice == null || newProductPrice < lastNotifiedPrice)
+                productsOfInterestByCpf.computeIfAbsent(productOfInterest.getCpf(), cpf -> new ArrayList<>()).add(productOfInterest);
+        }
+
+        log.info("Atualizações de preço: " + matchedProductsOfInterest.size() + " produtos de interesse encontrados, " + (matchedProductsOfInterest.size() - countProductsOfInterest(productsOfInterestByCpf)) + " já notificados com preço igual ou menor");
+        return productsOfInterestByCpf;
+    }
+
+    private List<ProductOfInterest> addTopicNotifications(PriceUpdate priceUpdate, List<ProductOfInterest> productsOfInterest, List<Notification> topicNotifications, Map<String, Double> notifiedTopicPrices) {
+
+        List<ProductOfInterest> remainingProductsOfInterest = new ArrayList<>();
+        Set<String> topicKeys = new LinkedHashSet<>();
+
+        for (ProductOfInterest productOfInterest : productsOfInterest) {
+            if (productTopicService.isSubscribed(productOfInterest) && productTopicService.isBandFullyMatched(productOfInterest.getMinPriceAlert(), priceUpdate.getNewProductPrice()))
+                topicKeys.add(TOPIC_KEY_PREFIX + productTopicService.getTopic(priceUpdate.getProductId(), productOfInterest.getMinPriceAlert()));
+            else
+                remainingProductsOfInterest.add(productOfInterest);
+        }
+
+        Map<String, Double> lastNotifiedPrices = lastNotifiedPriceRepository.getAll(topicKeys);
+        int notifiedTopics = 0;
+        String salesMessage = notificationRenderer.renderPriceUpdateTopic(notificationRenderer.getDefaultLocale(), priceUpdate);
+
+        for (String topicKey : topicKeys) {
+            Double lastNotifiedPrice = lastNotifiedPrices.get(topicKey);
+
+            if (lastNotifiedPrice == null || priceUpdate.getNewProductPrice() < lastNotifiedPrice) {
+                Notification notification = new Notification(null, null, salesMessage);
+                notification.setTopic(topicKey.substring(TOPIC_KEY_PREFIX.length()));
+                topicNotifications.add(notification);
+                notifiedTopicPrices.put(topicKey, priceUpdate.getNewProductPrice());
+                notifiedTopics++;
+            }
+        }
+
+        log.info("Produto " + priceUpdate.getProductId() + ": " + (productsOfInterest.size() - remainingProductsOfInterest.size()) + " produtos de interesse notificados por " + notifiedTopics + " tópicos");
+        return remainingProductsOfInterest;
+    }
+
+    private void fanOut(NotificationJob job, Map<String, List<ProductOfInterest>> productsOfInterestByCpf, Map<Long, PriceUpdate> priceUpdatesByProductId, List<Notification> topicNotifications, Map<String, Double> notifiedTopicPrices) {
+
+        Map<String, User> usersByCpf = userRepository.getByCpfs(productsOfInterestByCpf.keySet());
+
+        job.addTotal(productsOfInterestByCpf.size() + topicNotifications.size());
+
+        List<Notification> notifications = new ArrayList<>(topicNotifications);
+        Map<String, Double> notifiedPrices = new HashMap<>(notifiedTopicPrices);
+
+        for (Map.Entry<String, List<ProductOfInterest>> entry : productsOfInterestByCpf.entrySet()) {
+
+            User user = usersByCpf.get(entry.getKey());
+
+            if (user != null && user.getFcmRegId() != null) {
+                notifications.add(new Notification(user.getCpf(), user.getFcmRegId(), notificationRenderer.renderPriceUpdates(notificationRenderer.getDefaultLocale(), user, entry.getValue(), priceUpdatesByProductId)));
+
+                for (ProductOfInterest productOfInterest : entry.getValue())
+                    notifiedPrices.put(getLastNotifiedPriceKey(productOfInterest), priceUpdatesByProductId.get(productOfInterest.getSalesProviderProductId()).getNewProductPrice());
+            } else {
+                log.info("Notificação não enviada para o usuário com cpf: " + entry.getKey() + " - usuário não encontrado ou sem fcmRegId cadastrado");
+                job.addSkipped(1);
+            }
+        }
+
+        notificationDispatcher.dispatch(job, notifications);
+        lastNotifiedPriceRepository.putAll(notifiedPrices);
+    }
+
+    private int countProductsOfInterest(Map<String, List<ProductOfInterest>> productsOfInterestByCpf) {
+
+        int count = 0;
+
+        for (List<ProductOfInterest> productsOfInterest : productsOfInterestByCpf.values())
+            count += productsOfInterest.size();
+
+        return count;
+    }
+
+    private String getLastNotifiedPriceKey(ProductOfInterest productOfInterest) {
+        return productOfInterest.getCpf() + ":" + productOfInterest.getSalesProviderProductId();
+    }
+}
@@ -0,0 +1,299 @@
+package br.com.messenger.gae_service.service;
+
+import br.com.messenger.gae_service.model.ProductOfInterest;
+import br.com.messenger.gae_service.model.User;
+import br.com.messenger.gae_service.repository.ProductOfInterestRepository;
+import br.com.messenger.gae_service.repository.UserRepository;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.TopicManagementResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+@Service
+public class ProductTopicService {
+
+    private static final Logger log = Logger.getLogger(ProductTopicService.class.getName());
+
+    private static final String QUEUE_NAME = "topics";
+    private static final String RECONCILE_URL = "/tasks/topics/reconcile";
+
+    private static final String SUBSCRIPTION_SEPARATOR = "|";
+
+    private static final int TASK_BATCH_SIZE = 100;
+    private static final int TOPIC_BATCH_SIZE = 1000;
+    private static final int MAX_TASK_PAYLOAD_BYTES = 90000;
+    private static final int SUBSCRIPTION_PARAM_OVERHEAD_BYTES = 24;
+
+    private final boolean enabled;
+    private final int watcherThreshold;
+    private final double bandRatioLog;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductOfInterestRepository productOfInterestRepository;
+
+    public ProductTopicService(@Value("${messenger.topics.enabled:true}") boolean enabled,
+                               @Value("${messenger.topics.watcher-threshold:1000}") int watcherThreshold,
+                               @Value("${messenger.topics.band-ratio:0.1}") double bandRatio) {
+        this.enabled = enabled;
+        this.watcherThreshold = watcherThreshold;
+        this.bandRatioLog = Math.log(1 + bandRatio);
+    }
+
+    public boolean shouldUseTopics(int watcherCount) {
+        return enabled && watcherCount > watcherThreshold;
+    }
+
+    public String getTopic(Long salesProviderProductId, double minPriceAlert) {
+        return "product-" + salesProviderProductId + "-band-" + getBand(minPriceAlert);
+    }
+
+    public boolean isBandFullyMatched(double minPriceAlert, double newProductPrice) {
+        return getBand(newProductPrice) < getBand(minPriceAlert);
+    }
+
+    public boolean isSubscribed(ProductOfInterest productOfInterest) {
+        return getTopic(productOfInterest).equals(productOfInterest.getSubscribedTopic());
+    }
+
+    public void updateSubscription(@Nullable ProductOfInterest previousProductOfInterest, @Nullable ProductOfInterest productOfInterest) {
+
+        if (!enabled)
+            return;
+
+        ProductOfInterest currentProductOfInterest = (productOfInterest != null) ? productOfInterest : previousProductOfInterest;
+        String subscribedTopic = (previousProductOfInterest != null) ? previousProductOfInterest.getSubscribedTopic() : null;
+        String subscribedFcmRegId = (previousProductOfInterest != null) ? previousProductOfInterest.getSubscribedFcmRegId() : null;
+
+        enqueue(reconcileTasks(Collections.singletonList(subscription(currentProductOfInterest.getCpf(), currentProductOfInterest.getSalesProviderProductId(), subscribedTopic, subscribedFcmRegId))));
+    }
+
+    public void moveSubscriptions(String cpf, @Nullable String previousFcmRegId, @Nullable String fcmRegId) {
+
+        if (!enabled || Objects.equals(previousFcmRegId, fcmRegId))
+            return;
+
+        List<String> subscriptions = new ArrayList<>();
+
+        for (ProductOfInterest productOfInterest : productOfInterestRepository.clearSubscribedTopics(cpf))
+            subscriptions.add(subscription(cpf, productOfInterest.getSalesProviderProductId(), productOfInterest.getSubscribedTopic(), productOfInterest.getSubscribedFcmRegId()));
+
+        enqueue(reconcileTasks(subscriptions));
+    }
+
+    public int subscribeAll() {
+
+        if (!enabled)
+            return 0;
+
+        Map<String, List<String>> subscriptionsByTopic = new LinkedHashMap<>();
+        AtomicInteger subscribed = new AtomicInteger();
+
+        productOfInterestRepository.forEachProductOfInterest(productOfInterest -> {
+            if (isSubscribed(productOfInterest))
+                return;
+
+            String topic = getTopic(productOfInterest);
+            List<String> subscriptions = subscriptionsByTopic.computeIfAbsent(topic, k -> new ArrayList<>());
+            subscriptions.add(subscription(productOfInterest.getCpf(), productOfInterest.getSalesProviderProductId(), productOfInterest.getSubscribedTopic(), productOfInterest.getSubscribedFcmRegId()));
+            subscribed.incrementAndGet();
+
+            if (subscriptions.size() >= TOPIC_BATCH_SIZE) {
+                enqueue(reconcileTasks(subscriptions));
+                subscriptionsByTopic.remove(topic);
+            }
+        });
+
+        List<String> remainingSubscriptions = new ArrayList<>();
+
+        for (List<String> subscriptions : subscriptionsByTopic.values())
+            remainingSubscriptions.addAll(subscriptions);
+
+        enqueue(reconcileTasks(remainingSubscriptions));
+        return subscribed.get();
+    }
+
+    public void reconcile(List<String> subscriptions) throws FirebaseMessagingException {
+
+        List<SubscriptionChange> changes = new ArrayList<>();
+        Set<String> cpfs = new HashSet<>();
+
+        for (String subscription : subscriptions) {
+            SubscriptionChange change = SubscriptionChange.parse(subscription);
+            changes.add(change);
+            cpfs.add(change.cpf);
+        }
+
+        Map<String, User> usersByCpf = userRepository.getByCpfs(cpfs);
+        Map<String, Set<String>> unsubscribeFcmRegIdsByTopic = new LinkedHashMap<>();
+        Map<String, List<SubscriptionChange>> subscribeChangesByTopic = new LinkedHashMap<>();
+        List<SubscriptionChange> completedChanges = new ArrayList<>();
+
+        for (SubscriptionChange change : changes) {
+            Optional<ProductOfInterest> optProductOfInterest = productOfInterestRepository.getProductOfInterest(change.cpf, change.salesProviderProductId);
+            User user = usersByCpf.get(change.cpf);
+
+            String fcmRegId = (user != null) ? user.getFcmRegId() : null;
+            String topic = (optProductOfInterest.isPresent() && fcmRegId != null) ? getTopic(optProductOfInterest.get()) : null;
+
+            if (change.subscribedTopic != null && change.subscribedFcmRegId != null && !isSameSubscription(change.subscribedTopic, change.subscribedFcmRegId, topic, fcmRegId))
+                unsubscribeFcmRegIdsByTopic.computeIfAbsent(change.subscribedTopic, k -> new LinkedHashSet<>()).add(change.subscribedFcmRegId);
+
+            if (!optProductOfInterest.isPresent())
+                continue;
+
+            ProductOfInterest productOfInterest = optProductOfInterest.get();
+
+            if (isSameSubscription(productOfInterest.getSubscribedTopic(), productOfInterest.getSubscribedFcmRegId(), topic, fcmRegId))
+                continue;
+
+            if (productOfInterest.getSubscribedTopic() != null && productOfInterest.getSubscribedFcmRegId() != null && !isSameSubscription(productOfInterest.getSubscribedTopic(), productOfInterest.getSubscribedFcmRegId(), change.subscribedTopic, change.subscribedFcmRegId))
+                unsubscribeFcmRegIdsByTopic.computeIfAbsent(productOfInterest.getSubscribedTopic(), k -> new LinkedHashSet<>()).add(productOfInterest.getSubscribedFcmRegId());
+
+            change.topic = topic;
+            change.fcmRegId = fcmRegId;
+
+            if (topic != null)
+                subscribeChangesByTopic.computeIfAbsent(topic, k -> new ArrayList<>()).add(change);
+            else
+                completedChanges.add(change);
+        }
+
+        for (Map.Entry<String, Set<String>> unsubscribe : unsubscribeFcmRegIdsByTopic.entrySet()) {
+            List<String> fcmRegIds = new ArrayList<>(unsubscribe.getValue());
+
+            for (int start = 0; start < fcmRegIds.size(); start += TOPIC_BATCH_SIZE) {
+                TopicManagementResponse response = FirebaseMessaging.getInstance().unsubscribeFromTopic(fcmRegIds.subList(start, Math.min(start + TOPIC_BATCH_SIZE, fcmRegIds.size())), unsubscribe.getKey());
+
+                for (TopicManagementResponse.Error error : response.getErrors())
+                    log.warning("Falha ao desinscrever token do tópico " + unsubscribe.getKey() + ": " + error.getReason());
+            }
+        }
+
+        int failures = 0;
+
+        for (Map.Entry<String, List<SubscriptionChange>> subscribe : subscribeChangesByTopic.entrySet()) {
+            List<SubscriptionChange> topicChanges = subscribe.getValue();
+
+            for (int start = 0; start < topicChanges.size(); start += TOPIC_BATCH_SIZE) {
+                List<SubscriptionChange> batch = topicChanges.subList(start, Math.min(start + TOPIC_BATCH_SIZE, topicChanges.size()));
+                List<String> fcmRegIds = new ArrayList<>();
+
+                for (SubscriptionChange change : batch)
+                    fcmRegIds.add(change.fcmRegId);
+
+                TopicManagementResponse response = FirebaseMessaging.getInstance().subscribeToTopic(fcmRegIds, subscribe.getKey());
+                Set<Integer> failedIndexes = new HashSet<>();
+
+                for (TopicManagementResponse.Error error : response.getErrors()) {
+                    failedIndexes.add(error.getIndex());
+                    log.warning("Falha ao inscrever token no tópico " + subscribe.getKey() + ": " + error.getReason());
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!failedIndexes.contains(i))
+                        completedChanges.add(batch.get(i));
+                }
+
+                failures += failedIndexes.size();
+            }
+        }
+
+        for (SubscriptionChange change : completedChanges)
+            productOfInterestRepository.setSubscribedTopic(change.cpf, change.salesProviderProductId, change.topic, change.fcmRegId);
+
+        if (failures > 0)
+            throw new IllegalStateException("Falha ao inscrever " + failures + " tokens em tópicos");
+    }
+
+    private boolean isSameSubscription(@Nullable String topic, @Nullable String fcmRegId, @Nullable String otherTopic, @Nullable String otherFcmRegId) {
+        return Objects.equals(topic, otherTopic) && Objects.equals(fcmRegId, otherFcmRegId);
+    }
+
+    private String subscription(String cpf, Long salesProviderProductId, @Nullable String subscribedTopic, @Nullable String subscribedFcmRegId) {
+
+        if (subscribedTopic != null && subscribedFcmRegId != null)
+            return cpf + SUBSCRIPTION_SEPARATOR + salesProviderProductId + SUBSCRIPTION_SEPARATOR + subscribedTopic + SUBSCRIPTION_SEPARATOR + subscribedFcmRegId;
+
+        return cpf + SUBSCRIPTION_SEPARATOR + salesProviderProductId;
+    }
+
+    private List<TaskOptions> reconcileTasks(List<String> subscriptions) {
+
+        List<TaskOptions> tasks = new ArrayList<>();
+        TaskOptions task = null;
+        int taskSubscriptions = 0;
+        int taskPayloadBytes = 0;
+
+        for (String subscription : subscriptions) {
+            if (task == null || taskSubscriptions >= TOPIC_BATCH_SIZE || taskPayloadBytes + subscription.length() > MAX_TASK_PAYLOAD_BYTES) {
+                task = TaskOptions.Builder.withUrl(RECONCILE_URL).method(TaskOptions.Method.POST);
+                tasks.add(task);
+                taskSubscriptions = 0;
+                taskPayloadBytes = 0;
+            }
+
+            task.param("subscription", subscription);
+            taskSubscriptions++;
+            taskPayloadBytes += subscription.length() + SUBSCRIPTION_PARAM_OVERHEAD_BYTES;
+        }
+
+        return tasks;
+    }
+
+    private void enqueue(List<TaskOptions> tasks) {
+
+        for (int start = 0; start < tasks.size(); start += TASK_BATCH_SIZE) {
+            try {
+                QueueFactory.getQueue(QUEUE_NAME).add(tasks.subList(start, Math.min(start + TASK_BATCH_SIZE, tasks.size())));
+            } catch (RuntimeException e) {
+                log.severe("Falha ao enfileirar atualização de inscrições em tópicos: " + e.getMessage());
+            }
+        }
+    }
+
+    private String getTopic(ProductOfInterest productOfInterest) {
+        return getTopic(productOfInterest.getSalesProviderProductId(), productOfInterest.getMinPriceAlert());
+    }
+
+    private int getBand(double minPriceAlert) {
+        return (int) Math.floor(Math.log(minPriceAlert) / bandRatioLog);
+    }
+
+    private static class SubscriptionChange {
+
+        private String cpf;
+        private Long salesProviderProductId;
+        private String subscribedTopic;
+        private String subscribedFcmRegId;
+        private String topic;
+        private String fcmRegId;
+
+        private static SubscriptionChange parse(String subscription) {
+
+            String[] fields = subscription.split(Pattern.quote(SUBSCRIPTION_SEPARATOR), -1);
+            SubscriptionChange change = new SubscriptionChange();
+            change.cpf = fields[0];
+            change.salesProviderProductId = Long.parseLong(fields[1]);
+
+            if (fields.length >= 4) {
+                change.subscribedTopic = fields[2];
+                change.subscribedFcmRegId = fields[3];
+            }
+
+            return change;
+        }
+    }
+}
@@ -4,26 +4,42 @@ import br.com.messenger.gae_service.model.User;
 import br.com.messenger.gae_service.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
+import java.util.logging.Logger;
 
 @Service("userDetailsService")
-public class UserService implements UserDetailsService {
+public class UserService implements UserDetailsService, UserDetailsPasswordService {
+
+    private static final Logger log = Logger.getLogger(UserService.class.getName());
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private LastLoginWriter lastLoginWriter;
+
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
         Optional<User> optUser = userRepository.getByEmail(username);
         if (optUser.isPresent()) {
-            userRepository.updateUserLogin(optUser.get());
+            lastLoginWriter.recordLogin(optUser.get());
             return optUser.get();
         } else {
             throw new UsernameNotFoundException("Usuário não encontrado");
         }
     }
+
+    @Override
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        if (userRepository.updatePassword(userDetails.getUsername(), userDetails.getPassword(), newPassword)) {
+            log.info("Senha do usuário " + userDetails.getUsername() + " recodificada com o custo atual");
+            ((User) userDetails).setPassword(newPassword);
+        }
+        return userDetails;
+    }
 }
@@ -0,0 +1,9 @@
+package br.com.messenger.gae_service.util;
+
+public enum BatchItemStatus {
+    CREATED,
+    UPDATED,
+    DELETED,
+    NOT_FOUND,
+    INVALID
+}
@@ -2,7 +2,6 @@ package br.com.messenger.gae_service.util;
 
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -17,8 +16,7 @@ public class CheckRole {
     }
 
     private boolean hasRole(Authentication authentication, String role) {
-        UserDetails userDetails = (UserDetails) authentication.getPrincipal();
-        for (GrantedAuthority grantedAuthority : userDetails.getAuthorities()) {
+        for (GrantedAuthority grantedAuthority : authentication.getAuthorities()) {
             if (grantedAuthority.getAuthority().equals(role))
                 return true;
         }
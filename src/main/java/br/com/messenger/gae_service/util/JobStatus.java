@@ -0,0 +1,7 @@
+package br.com.messenger.gae_service.util;
+
+public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    DONE
+}
@@ -0,0 +1,9 @@
+package br.com.messenger.gae_service.util;
+
+public enum NotificationStatus {
+    PENDING,
+    DIGEST_PENDING,
+    DIGESTED,
+    SENT,
+    FAILED
+}
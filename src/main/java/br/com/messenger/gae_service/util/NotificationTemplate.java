@@ -0,0 +1,66 @@
+package br.com.messenger.gae_service.util;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NotificationTemplate {
+
+    private final String[] literals;
+    private final int[] parameterIndexes;
+
+    private NotificationTemplate(String[] literals, int[] parameterIndexes) {
+        this.literals = literals;
+        this.parameterIndexes = parameterIndexes;
+    }
+
+    public static NotificationTemplate compile(String text, List<String> parameterNames) {
+
+        String source = text.replace("\n", System.lineSeparator());
+        List<String> literals = new ArrayList<>();
+        List<Integer> parameterIndexes = new ArrayList<>();
+        int position = 0;
+
+        while (true) {
+            int start = source.indexOf('{', position);
+            int end = (start >= 0) ? source.indexOf('}', start) : -1;
+
+            if (end < 0) {
+                literals.add(source.substring(position));
+                break;
+            }
+
+            String parameterName = source.substring(start + 1, end);
+            int parameterIndex = parameterNames.indexOf(parameterName);
+
+            if (parameterIndex < 0)
+                throw new IllegalArgumentException("Parâmetro desconhecido no template: " + parameterName);
+
+            literals.add(source.substring(position, start));
+            parameterIndexes.add(parameterIndex);
+            position = end + 1;
+        }
+
+        int[] indexes = new int[parameterIndexes.size()];
+
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = parameterIndexes.get(i);
+
+        return new NotificationTemplate(literals.toArray(new String[0]), indexes);
+    }
+
+    public void render(StringBuilder buffer, NumberFormat priceFormat, Object... values) {
+
+        for (int i = 0; i < parameterIndexes.length; i++) {
+            buffer.append(literals[i]);
+            Object value = values[parameterIndexes[i]];
+
+            if (value instanceof Double)
+                buffer.append(priceFormat.format(((Double) value).doubleValue()));
+            else
+                buffer.append(value);
+        }
+
+        buffer.append(literals[literals.length - 1]);
+    }
+}